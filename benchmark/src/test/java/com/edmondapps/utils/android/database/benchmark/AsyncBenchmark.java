@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.database.AsyncDatabase;
+
+/**
+ * Compares the latency of point reads while another thread keeps writing,
+ * between calling a {@code Database} directly from both threads and going
+ * through an {@link AsyncDatabase}.
+ * </p>
+ * Write-ahead logging depends on the SQLite library in use; without it, reads
+ * still wait for the write in progress and the difference is only the cost of
+ * the hand-off.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AsyncBenchmark {
+    private static final int ROWS = 10000;
+    private static final int READS = 5000;
+    private static final String SELECT_ID = BaseColumns._ID + " = ?";
+
+    @Test
+    public void readsUnderWriteLoad() throws Exception {
+        runBlocking();
+        runAsync();
+    }
+
+    private void runBlocking() throws Exception {
+        final BenchmarkDatabase database = newDatabase("blocking");
+        database.acquire();
+        try {
+            Writer writer = new Writer() {
+                @Override
+                void write(BenchmarkEntry entry) {
+                    database.insertOrUpdate(entry);
+                }
+            };
+            writer.start();
+            long[] latencies = new long[READS];
+            int writes;
+            try {
+                Random random = new Random(1);
+                for (int i = 0; i < READS; i++) {
+                    String[] args = {String.valueOf(random.nextInt(ROWS) + 1)};
+                    long start = System.nanoTime();
+                    assertEquals(1, database.count(SELECT_ID, args));
+                    latencies[i] = System.nanoTime() - start;
+                }
+            } finally {
+                writes = writer.finish();
+            }
+            record("blocking", latencies, writes);
+        } finally {
+            database.release();
+        }
+    }
+
+    private void runAsync() throws Exception {
+        final AsyncDatabase<BenchmarkEntry> async = new AsyncDatabase<BenchmarkEntry>(newDatabase("async"));
+        try {
+            Writer writer = new Writer() {
+                @Override
+                void write(BenchmarkEntry entry) throws Exception {
+                    async.insertOrUpdate(entry, null).get();
+                }
+            };
+            writer.start();
+            long[] latencies = new long[READS];
+            int writes;
+            try {
+                Random random = new Random(1);
+                for (int i = 0; i < READS; i++) {
+                    String[] args = {String.valueOf(random.nextInt(ROWS) + 1)};
+                    long start = System.nanoTime();
+                    assertEquals(1, async.count(SELECT_ID, args, null).get().intValue());
+                    latencies[i] = System.nanoTime() - start;
+                }
+            } finally {
+                writes = writer.finish();
+            }
+            record("async", latencies, writes);
+        } finally {
+            async.close();
+        }
+    }
+
+    private static BenchmarkDatabase newDatabase(String name) {
+        BenchmarkDatabase database = new BenchmarkDatabase(Robolectric.application, name);
+        database.delete((String)null);
+        database.insertBunch(BenchmarkDatabase.newEntries(1, ROWS), BenchmarkEntry.BINDER);
+        return database;
+    }
+
+    private static void record(String variant, long[] latencies, int writes) {
+        Arrays.sort(latencies);
+        BenchmarkResults.record("reads under writes", variant, ROWS, "p50_us", percentile(latencies, 50) / 1e3);
+        BenchmarkResults.record("reads under writes", variant, ROWS, "p99_us", percentile(latencies, 99) / 1e3);
+        BenchmarkResults.record("reads under writes", variant, ROWS, "max_us", latencies[latencies.length - 1] / 1e3);
+        BenchmarkResults.record("reads under writes", variant, ROWS, "writes", writes);
+    }
+
+    /**
+     * @param sorted
+     *            latencies in ascending order
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int)Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * Updates random rows in a loop until {@link #finish()} is called.
+     */
+    private abstract static class Writer extends Thread {
+        private volatile boolean mRunning = true;
+        private final AtomicInteger mWrites = new AtomicInteger();
+        private volatile Exception mError;
+
+        abstract void write(BenchmarkEntry entry) throws Exception;
+
+        @Override
+        public void run() {
+            Random random = new Random(2);
+            try {
+                while (mRunning) {
+                    long id = random.nextInt(ROWS) + 1;
+                    write(new BenchmarkEntry(id, "updated" + id, random.nextLong()));
+                    mWrites.incrementAndGet();
+                }
+            } catch (Exception e) {
+                mError = e;
+            }
+        }
+
+        /**
+         * @return the number of writes performed
+         */
+        int finish() throws Exception {
+            mRunning = false;
+            join();
+            if (mError != null) {
+                throw mError;
+            }
+            return mWrites.get();
+        }
+    }
+}
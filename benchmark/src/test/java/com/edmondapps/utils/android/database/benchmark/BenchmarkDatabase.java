@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.SharedDatabase;
+
+/**
+ * @author Edmond
+ * 
+ */
+public class BenchmarkDatabase extends Database<BenchmarkEntry> {
+    public BenchmarkDatabase(Context context, String name) {
+        super(context, new BenchmarkTable(name));
+    }
+
+    public BenchmarkDatabase(SharedDatabase shared, String name) {
+        super(shared, new BenchmarkTable(name));
+    }
+
+    /**
+     * @return entries with IDs from {@code firstId}, inclusive
+     */
+    public static List<BenchmarkEntry> newEntries(long firstId, int count) {
+        List<BenchmarkEntry> entries = new ArrayList<BenchmarkEntry>(count);
+        for (int i = 0; i < count; i++) {
+            long id = firstId + i;
+            entries.add(new BenchmarkEntry(id, "name" + id, id * 31));
+        }
+        return entries;
+    }
+}
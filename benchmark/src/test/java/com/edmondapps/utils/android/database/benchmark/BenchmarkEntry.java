@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteProgram;
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.database.DatabaseEntry;
+import com.edmondapps.utils.android.database.DatabaseEntryBinder;
+import com.edmondapps.utils.android.database.DatabaseTable;
+
+/**
+ * A row of {@link BenchmarkTable}.
+ * 
+ * @author Edmond
+ * 
+ */
+public class BenchmarkEntry implements DatabaseEntry {
+    public static final DatabaseEntryBinder<BenchmarkEntry> BINDER = new DatabaseEntryBinder<BenchmarkEntry>() {
+        private final String[] mColumns = {BaseColumns._ID, BenchmarkTable.NAME, BenchmarkTable.VALUE};
+
+        @Override
+        public String[] getColumns(DatabaseTable table) {
+            return mColumns;
+        }
+
+        @Override
+        public void bind(BenchmarkEntry t, SQLiteProgram program) {
+            program.bindLong(1, t.mId);
+            program.bindString(2, t.mName);
+            program.bindLong(3, t.mValue);
+        }
+    };
+
+    private final long mId;
+    private final String mName;
+    private final long mValue;
+
+    public BenchmarkEntry(long id, String name, long value) {
+        mId = id;
+        mName = name;
+        mValue = value;
+    }
+
+    @Override
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getValue() {
+        return mValue;
+    }
+
+    @Override
+    public ContentValues toContentValues(DatabaseTable db) {
+        ContentValues values = new ContentValues(3);
+        values.put(BaseColumns._ID, mId);
+        values.put(BenchmarkTable.NAME, mName);
+        values.put(BenchmarkTable.VALUE, mValue);
+        return values;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.edmondapps.utils.java.IoUtils;
+import com.edmondapps.utils.java.LatencyHistogram;
+
+/**
+ * Prints the results of the benchmarks and appends them to the file named by
+ * the {@code benchmark.output} system property,
+ * {@code target/benchmark-results.jsonl} by default, one JSON object per line:
+ * 
+ * <pre>
+ * {"benchmark":"insert","variant":"insertBunch","rows":10000,"metric":"ms","value":84.0,"time":1381000000000}
+ * </pre>
+ * 
+ * The row counts benchmarked are read from the {@code benchmark.rows} system
+ * property, a comma separated list, {@code 10000,100000} by default.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class BenchmarkResults {
+    private static final String OUTPUT = System.getProperty("benchmark.output", "target/benchmark-results.jsonl");
+    private static final String ROWS = System.getProperty("benchmark.rows", "10000,100000");
+
+    private BenchmarkResults() {
+        throw new AssertionError();
+    }
+
+    public static int[] getRowCounts() {
+        String[] values = ROWS.split(",");
+        int[] rows = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            rows[i] = Integer.parseInt(values[i].trim());
+        }
+        return rows;
+    }
+
+    public static void recordMillis(String benchmark, String variant, int rows, long nanos) {
+        record(benchmark, variant, rows, "ms", nanos / 1e6);
+    }
+
+    /**
+     * Records the mean, median and 99th percentile in microseconds.
+     */
+    public static void recordLatency(String benchmark, String variant, int rows, LatencyHistogram latency) {
+        record(benchmark, variant, rows, "mean_us", latency.getMean() / 1e3);
+        record(benchmark, variant, rows, "p50_us", latency.getPercentile(50) / 1e3);
+        record(benchmark, variant, rows, "p99_us", latency.getPercentile(99) / 1e3);
+    }
+
+    public static synchronized void record(String benchmark, String variant, int rows, String metric, double value) {
+        System.out.println(String.format("%-14s %-28s %,9d rows %10.1f %s", benchmark, variant, rows, value, metric));
+
+        StringBuilder json = new StringBuilder("{");
+        appendString(json, "benchmark", benchmark).append(',');
+        appendString(json, "variant", variant).append(',');
+        json.append("\"rows\":").append(rows).append(',');
+        appendString(json, "metric", metric).append(',');
+        json.append("\"value\":").append(value).append(',');
+        json.append("\"time\":").append(System.currentTimeMillis());
+        json.append("}\n");
+
+        File file = new File(OUTPUT);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            writer.write(json.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot write " + file, e);
+        } finally {
+            IoUtils.quietClose(writer);
+        }
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String name, String value) {
+        return json.append('"').append(name).append("\":\"").append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.database.DatabaseTable;
+
+/**
+ * @author Edmond
+ * 
+ */
+public class BenchmarkTable implements DatabaseTable {
+    public static final String NAME = "name";
+    public static final String VALUE = "value";
+
+    private final String mName;
+
+    public BenchmarkTable(String name) {
+        mName = name;
+    }
+
+    @Override
+    public String getTableName() {
+        return mName;
+    }
+
+    @Override
+    public int getTableVersion() {
+        return 1;
+    }
+
+    @Override
+    public String onCreateTableCommand() {
+        return new StringBuilder()
+                .append("CREATE TABLE ").append(mName)
+                .append("( ")
+                .append(BaseColumns._ID).append(" INTEGER PRIMARY KEY").append(", ")
+                .append(NAME).append(" TEXT").append(", ")
+                .append(VALUE).append(" INTEGER")
+                .append(" )")
+                .toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.DatabaseCursorLoader;
+import com.edmondapps.utils.java.LatencyHistogram;
+
+/**
+ * Throughput of the main operations of {@link Database} at each row count of
+ * {@link BenchmarkResults#getRowCounts()}: single and bulk inserts, upserts,
+ * {@link Database#size()}, {@link Database#getIds()} and iterating a
+ * {@code Cursor}, directly or loaded by a {@link DatabaseCursorLoader}.
+ * </p>
+ * Single inserts each run in their own transaction and are capped at
+ * {@link #MAX_SINGLE_INSERTS} rows.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseBenchmark {
+    private static final int MAX_SINGLE_INSERTS = 10000;
+    private static final int SIZE_CALLS = 1000;
+
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "database");
+        mDatabase.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void insert() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            List<BenchmarkEntry> entries = BenchmarkDatabase.newEntries(1, rows);
+
+            int singles = Math.min(rows, MAX_SINGLE_INSERTS);
+            mDatabase.delete((String)null);
+            long start = System.nanoTime();
+            for (int i = 0; i < singles; i++) {
+                mDatabase.insert(entries.get(i));
+            }
+            BenchmarkResults.recordMillis("insert", "insert", singles, System.nanoTime() - start);
+
+            mDatabase.delete((String)null);
+            start = System.nanoTime();
+            mDatabase.insertBunch(entries);
+            BenchmarkResults.recordMillis("insert", "insertBunch", rows, System.nanoTime() - start);
+
+            mDatabase.delete((String)null);
+            start = System.nanoTime();
+            mDatabase.insertBunch(entries, BenchmarkEntry.BINDER);
+            BenchmarkResults.recordMillis("insert", "insertBunch(binder)", rows, System.nanoTime() - start);
+            assertEquals(rows, mDatabase.count(null));
+        }
+    }
+
+    @Test
+    public void upsert() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            fill(rows);
+            List<BenchmarkEntry> entries = BenchmarkDatabase.newEntries(1, rows);
+
+            mDatabase.setNativeUpsertEnabled(false);
+            long start = System.nanoTime();
+            mDatabase.insertOrUpdateBunch(entries);
+            BenchmarkResults.recordMillis("upsert", "update then insert", rows, System.nanoTime() - start);
+
+            mDatabase.setNativeUpsertEnabled(true);
+            start = System.nanoTime();
+            mDatabase.insertOrUpdateBunch(entries);
+            BenchmarkResults.recordMillis("upsert", mDatabase.isNativeUpsertAvailable() ? "native upsert" : "native upsert (fallback)", rows, System.nanoTime() - start);
+        }
+    }
+
+    @Test
+    public void size() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            fill(rows);
+
+            mDatabase.setSizeCached(false);
+            LatencyHistogram counted = new LatencyHistogram();
+            for (int i = 0; i < SIZE_CALLS; i++) {
+                long start = System.nanoTime();
+                mDatabase.size();
+                counted.record(System.nanoTime() - start);
+            }
+            BenchmarkResults.recordLatency("size", "count", rows, counted);
+
+            mDatabase.setSizeCached(true);
+            LatencyHistogram cached = new LatencyHistogram();
+            for (int i = 0; i < SIZE_CALLS; i++) {
+                long start = System.nanoTime();
+                assertEquals(rows, mDatabase.size());
+                cached.record(System.nanoTime() - start);
+            }
+            BenchmarkResults.recordLatency("size", "cached", rows, cached);
+            mDatabase.setSizeCached(false);
+        }
+    }
+
+    @Test
+    public void getIds() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            fill(rows);
+            long start = System.nanoTime();
+            assertEquals(rows, mDatabase.getIds().length);
+            BenchmarkResults.recordMillis("getIds", "getIds", rows, System.nanoTime() - start);
+        }
+    }
+
+    @Test
+    public void iterate() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            fill(rows);
+
+            long start = System.nanoTime();
+            Cursor cursor = mDatabase.query();
+            try {
+                assertEquals(rows, read(cursor));
+            } finally {
+                cursor.close();
+            }
+            BenchmarkResults.recordMillis("iterate", "query", rows, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            cursor = new Loader(Robolectric.application, mDatabase).loadInBackground();
+            try {
+                assertEquals(rows, read(cursor));
+            } finally {
+                cursor.close();
+            }
+            BenchmarkResults.recordMillis("iterate", "DatabaseCursorLoader", rows, System.nanoTime() - start);
+        }
+    }
+
+    private void fill(int rows) {
+        mDatabase.delete((String)null);
+        mDatabase.insertBunch(BenchmarkDatabase.newEntries(1, rows), BenchmarkEntry.BINDER);
+    }
+
+    /**
+     * Reads every column of every row.
+     * 
+     * @return the number of rows
+     */
+    static int read(Cursor cursor) {
+        int count = 0;
+        long sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getLong(0) + cursor.getString(1).length() + cursor.getLong(2);
+            count++;
+        }
+        if (sum == 0) {
+            throw new AssertionError("nothing read");
+        }
+        return count;
+    }
+
+    private static class Loader extends DatabaseCursorLoader {
+        Loader(Context context, Database<?> database) {
+            super(context, database);
+        }
+
+        @Override
+        protected Cursor onLoadCursor() {
+            return getDatabase().query();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.DatabaseFilter;
+
+/**
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseFilterTest {
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "filter_test");
+        mDatabase.acquire();
+        mDatabase.delete((String)null);
+        mDatabase.insertBunch(BenchmarkDatabase.newEntries(1, 500), BenchmarkEntry.BINDER);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void narrowedSnapshotIsLimited() throws Exception {
+        TestFilter filter = new TestFilter(mDatabase);
+        filter.setIncrementalThreshold(1000);
+        // name1, name10-19 and name100-199 are kept in memory
+        filter.filterNow("name1");
+        assertEquals(111, filter.mCount);
+
+        filter.setLimit(5);
+        // name12 and name120-129, matched against the snapshot
+        filter.filterNow("name12");
+        assertEquals(5, filter.mCount);
+        assertEquals(5, filter.mNames.length);
+        for (String name : filter.mNames) {
+            assertTrue(name, name.startsWith("name12"));
+        }
+        assertEquals(11, filter.getTotalCount().get().intValue());
+    }
+
+    private static class TestFilter extends DatabaseFilter {
+        int mCount;
+        String[] mNames;
+
+        TestFilter(Database<?> database) {
+            super(database, BenchmarkTable.NAME);
+        }
+
+        void filterNow(CharSequence constraint) {
+            publishResults(constraint, performFiltering(constraint));
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, int count, Cursor c) {
+            mCount = count;
+            mNames = new String[c.getCount()];
+            try {
+                int column = c.getColumnIndexOrThrow(BenchmarkTable.NAME);
+                while (c.moveToNext()) {
+                    mNames[c.getPosition()] = c.getString(column);
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+import com.edmondapps.utils.android.database.DatabaseJson;
+import com.edmondapps.utils.android.json.JsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Exports and imports a table ordered by a nullable, non-unique column, which
+ * must not skip nor duplicate any row.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseJsonTest {
+    private static final int ROWS = 9;
+    private static final String[] NAMES = {null, "b", null, "a", "b", null, "a", null, "b"};
+
+    private static final JsonBuilder<BenchmarkEntry> BUILDER = new JsonBuilder<BenchmarkEntry>() {
+        @Override
+        public BenchmarkEntry build(long id, JsonReader reader) throws IOException {
+            String name = null;
+            long value = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (BenchmarkTable.NAME.equals(key) && (reader.peek() != JsonToken.NULL)) {
+                    name = reader.nextString();
+                } else if (BenchmarkTable.VALUE.equals(key)) {
+                    value = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return new BenchmarkEntry(id, name, value);
+        }
+    };
+
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "database_json");
+        mDatabase.acquire();
+        mDatabase.delete((String)null);
+        for (int i = 0; i < ROWS; i++) {
+            mDatabase.insert(new BenchmarkEntry(i + 1, NAMES[i], (i + 1) * 31));
+        }
+        mDatabase.setOrderBy(BenchmarkTable.NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        // pages smaller than the runs of equal names
+        assertEquals(ROWS, DatabaseJson.exportTo(mDatabase, writer, 2, null));
+        writer.flush();
+        mDatabase.delete((String)null);
+        assertEquals(0, mDatabase.count(null));
+
+        assertEquals(ROWS, DatabaseJson.importFrom(mDatabase, new ByteArrayInputStream(out.toByteArray()), BUILDER, null));
+        assertEquals(ROWS, mDatabase.count(null));
+        for (int i = 0; i < ROWS; i++) {
+            assertRow(i + 1, NAMES[i], (i + 1) * 31);
+        }
+    }
+
+    private void assertRow(long id, String name, long value) {
+        Cursor c = mDatabase.query(id);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals(name, c.getString(c.getColumnIndexOrThrow(BenchmarkTable.NAME)));
+            assertEquals(value, c.getLong(c.getColumnIndexOrThrow(BenchmarkTable.VALUE)));
+        } finally {
+            c.close();
+        }
+    }
+}
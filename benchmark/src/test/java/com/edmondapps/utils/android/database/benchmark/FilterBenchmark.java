@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.DatabaseFilter;
+import com.edmondapps.utils.java.LatencyHistogram;
+
+/**
+ * Latency of each keystroke of a {@link DatabaseFilter} typing a name, at each
+ * row count of {@link BenchmarkResults#getRowCounts()}. The default
+ * {@code LIKE} query is compared with the top-N and the incremental modes.
+ * </p>
+ * Every row matches the first keystrokes, the last ones narrow the result
+ * down to a few rows. Filtering and publishing run on the calling thread.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FilterBenchmark {
+    private static final String TYPED = "name12345";
+    private static final int ROUNDS = 3;
+    private static final int LIMIT = 50;
+    private static final int INCREMENTAL_THRESHOLD = 2000;
+
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "filter");
+        mDatabase.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void typing() {
+        for (int rows : BenchmarkResults.getRowCounts()) {
+            mDatabase.delete((String)null);
+            mDatabase.insertBunch(BenchmarkDatabase.newEntries(1, rows), BenchmarkEntry.BINDER);
+
+            BenchmarkFilter filter = new BenchmarkFilter(mDatabase);
+            BenchmarkResults.recordLatency("filter", "like", rows, type(filter));
+
+            filter = new BenchmarkFilter(mDatabase);
+            filter.setLimit(LIMIT);
+            BenchmarkResults.recordLatency("filter", "like, top " + LIMIT, rows, type(filter));
+
+            filter = new BenchmarkFilter(mDatabase);
+            filter.setIncrementalThreshold(INCREMENTAL_THRESHOLD);
+            BenchmarkResults.recordLatency("filter", "like, incremental " + INCREMENTAL_THRESHOLD, rows, type(filter));
+        }
+    }
+
+    private static LatencyHistogram type(BenchmarkFilter filter) {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int round = 0; round < ROUNDS; round++) {
+            filter.invalidateSnapshot();
+            for (int i = 1; i <= TYPED.length(); i++) {
+                long start = System.nanoTime();
+                filter.filterNow(TYPED.substring(0, i));
+                latency.record(System.nanoTime() - start);
+            }
+        }
+        return latency;
+    }
+
+    private static class BenchmarkFilter extends DatabaseFilter {
+        BenchmarkFilter(Database<?> database) {
+            super(database, BenchmarkTable.NAME);
+        }
+
+        void filterNow(CharSequence constraint) {
+            publishResults(constraint, performFiltering(constraint));
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, int count, Cursor c) {
+            c.close();
+        }
+    }
+}
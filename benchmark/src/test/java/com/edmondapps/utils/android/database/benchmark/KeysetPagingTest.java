@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.DatabaseEntry;
+import com.edmondapps.utils.android.database.DatabaseTable;
+import com.edmondapps.utils.android.database.Page;
+import com.edmondapps.utils.android.database.PageToken;
+
+/**
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class KeysetPagingTest {
+    private static final int ROWS = 500;
+
+    @Test
+    public void pagesOverCloseRealValues() {
+        RealDatabase database = new RealDatabase(Robolectric.application);
+        List<RealEntry> entries = new ArrayList<RealEntry>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            // one ulp apart, with every value twice to tie on the ID
+            entries.add(new RealEntry(i + 1, 1.0 + (i / 2) * Math.ulp(1.0)));
+        }
+        Collections.shuffle(entries, new Random(1));
+        database.insertBunch(entries);
+        database.setOrderBy(RealTable.VALUE + " DESC");
+
+        Set<Long> ids = new HashSet<Long>();
+        double last = Double.POSITIVE_INFINITY;
+        PageToken token = null;
+        do {
+            Page page = database.queryPage(token, 7);
+            Cursor c = page.getCursor();
+            try {
+                while (c.moveToNext()) {
+                    double value = c.getDouble(c.getColumnIndexOrThrow(RealTable.VALUE));
+                    assertTrue(value <= last);
+                    last = value;
+                    assertTrue("repeated row", ids.add(c.getLong(c.getColumnIndexOrThrow(BaseColumns._ID))));
+                }
+            } finally {
+                c.close();
+            }
+            token = page.getNextToken();
+        } while (token != null);
+        assertEquals(ROWS, ids.size());
+    }
+
+    private static class RealTable implements DatabaseTable {
+        static final String VALUE = "value";
+
+        @Override
+        public String getTableName() {
+            return "reals";
+        }
+
+        @Override
+        public int getTableVersion() {
+            return 1;
+        }
+
+        @Override
+        public String onCreateTableCommand() {
+            return "CREATE TABLE reals (" + BaseColumns._ID + " INTEGER PRIMARY KEY, " + VALUE + " REAL)";
+        }
+    }
+
+    private static class RealEntry implements DatabaseEntry {
+        private final long mId;
+        private final double mValue;
+
+        RealEntry(long id, double value) {
+            mId = id;
+            mValue = value;
+        }
+
+        @Override
+        public long getId() {
+            return mId;
+        }
+
+        @Override
+        public ContentValues toContentValues(DatabaseTable db) {
+            ContentValues values = new ContentValues(2);
+            values.put(BaseColumns._ID, mId);
+            values.put(RealTable.VALUE, mValue);
+            return values;
+        }
+    }
+
+    private static class RealDatabase extends Database<RealEntry> {
+        RealDatabase(Context context) {
+            super(context, new RealTable());
+        }
+    }
+}
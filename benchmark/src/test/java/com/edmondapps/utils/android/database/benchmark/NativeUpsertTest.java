@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+/**
+ * Checks the outcome reported by the native upsert path, which tells an update
+ * from an insert with {@code last_insert_rowid()}.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NativeUpsertTest {
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "native_upsert");
+        mDatabase.acquire();
+        mDatabase.delete((String)null);
+        assertTrue("native upsert is unavailable", mDatabase.isNativeUpsertAvailable());
+        mDatabase.setNativeUpsertEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void insertOrUpdate() {
+        assertEquals(1L, mDatabase.insertOrUpdate(new BenchmarkEntry(1, "a", 1)));
+        // the ID equals last_insert_rowid(), updated then inserted instead
+        assertEquals(-1L, mDatabase.insertOrUpdate(new BenchmarkEntry(1, "b", 2)));
+        assertEquals(2L, mDatabase.insertOrUpdate(new BenchmarkEntry(2, "c", 3)));
+        // native update, last_insert_rowid() is left at 2
+        assertEquals(-1L, mDatabase.insertOrUpdate(new BenchmarkEntry(1, "d", 4)));
+
+        assertEquals(2, mDatabase.count(null));
+        assertName("d", 1);
+        assertName("c", 2);
+    }
+
+    @Test
+    public void insertOrUpdateBunch() {
+        mDatabase.insertBunch(BenchmarkDatabase.newEntries(1, 2), BenchmarkEntry.BINDER);
+        List<Long> ids = mDatabase.insertOrUpdateBunch(Arrays.asList(
+                new BenchmarkEntry(2, "b", 2),
+                new BenchmarkEntry(3, "c", 3),
+                new BenchmarkEntry(1, "a", 1),
+                new BenchmarkEntry(4, "d", 4)));
+
+        assertEquals(Arrays.asList(0L, 3L, 0L, 4L), ids);
+        assertEquals(4, mDatabase.count(null));
+        assertName("a", 1);
+        assertName("b", 2);
+        assertName("c", 3);
+        assertName("d", 4);
+    }
+
+    private void assertName(String expected, long id) {
+        Cursor c = mDatabase.query(id);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals(expected, c.getString(c.getColumnIndexOrThrow(BenchmarkTable.NAME)));
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.database.Database;
+import com.edmondapps.utils.android.database.DatabaseEntry;
+import com.edmondapps.utils.android.database.DatabaseIndex;
+import com.edmondapps.utils.android.database.DatabaseTable;
+import com.edmondapps.utils.android.database.IndexedTable;
+import com.edmondapps.utils.android.database.QueryPlan;
+
+/**
+ * Explains queries on a table with an index on one of its columns.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueryPlanTest {
+    private static final String[] COVERED = {BaseColumns._ID, PlanTable.NAME};
+
+    private PlanDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new PlanDatabase(Robolectric.application);
+        mDatabase.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void selectionOnIndexedColumn() {
+        QueryPlan plan = mDatabase.explain(null, PlanTable.NAME + " = ?", "a");
+        assertFalse(plan.toString(), plan.isFullScan());
+        assertFalse(plan.toString(), plan.isIndexScan());
+    }
+
+    @Test
+    public void selectionOnOtherColumn() {
+        QueryPlan plan = mDatabase.explain(null, PlanTable.VALUE + " = ?", "1");
+        assertTrue(plan.toString(), plan.isFullScan());
+        assertFalse(plan.toString(), plan.isIndexScan());
+    }
+
+    @Test
+    public void orderByIndexedColumn() {
+        mDatabase.setOrderBy(PlanTable.NAME);
+        QueryPlan plan = mDatabase.explain(COVERED, null);
+        // no sort, but every entry of the index is read
+        assertFalse(plan.toString(), plan.usesTempBTree());
+        assertTrue(plan.toString(), plan.isFullScan());
+        assertTrue(plan.toString(), plan.isIndexScan());
+
+        mDatabase.registerQuery("ordered", COVERED, null);
+        assertTrue(mDatabase.findFullScans().containsKey("ordered"));
+    }
+
+    private static class PlanTable implements IndexedTable {
+        static final String NAME = "name";
+        static final String VALUE = "value";
+
+        @Override
+        public String getTableName() {
+            return "plans";
+        }
+
+        @Override
+        public int getTableVersion() {
+            return 1;
+        }
+
+        @Override
+        public String onCreateTableCommand() {
+            return "CREATE TABLE plans (" + BaseColumns._ID + " INTEGER PRIMARY KEY, " + NAME + " TEXT, " + VALUE + " INTEGER)";
+        }
+
+        @Override
+        public List<DatabaseIndex> getIndexes() {
+            return Collections.singletonList(new DatabaseIndex("plans_name", NAME));
+        }
+    }
+
+    private static class PlanEntry implements DatabaseEntry {
+        @Override
+        public long getId() {
+            return -1;
+        }
+
+        @Override
+        public ContentValues toContentValues(DatabaseTable db) {
+            return new ContentValues();
+        }
+    }
+
+    private static class PlanDatabase extends Database<PlanEntry> {
+        PlanDatabase(Context context) {
+            super(context, new PlanTable());
+        }
+    }
+}
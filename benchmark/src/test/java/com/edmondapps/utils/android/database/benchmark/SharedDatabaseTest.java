@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.Callable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import com.edmondapps.utils.android.database.SharedDatabase;
+
+/**
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SharedDatabaseTest {
+    private SharedDatabase mShared;
+    private BenchmarkDatabase mFirst;
+    private BenchmarkDatabase mSecond;
+
+    @Before
+    public void setUp() {
+        mShared = new SharedDatabase(Robolectric.application, "shared", 1);
+        mFirst = new BenchmarkDatabase(mShared, "first");
+        mSecond = new BenchmarkDatabase(mShared, "second");
+    }
+
+    @Test
+    public void writesOfTwoTablesCommitInOneTransaction() throws Exception {
+        mShared.runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mFirst.insert(new BenchmarkEntry(1, "first", 1));
+                mSecond.insert(new BenchmarkEntry(2, "second", 2));
+                mFirst.insert(new BenchmarkEntry(3, "first", 3));
+                return null;
+            }
+        });
+        assertFalse(mShared.isAcquired());
+        assertEquals(2, mFirst.count(null));
+        assertEquals(1, mSecond.count(null));
+
+        mSecond.insert(new BenchmarkEntry(4, "second", 4));
+        assertEquals(2, mSecond.size());
+    }
+
+    @Test
+    public void writesOfTwoTablesRollBackTogether() throws Exception {
+        try {
+            mShared.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    mFirst.insert(new BenchmarkEntry(1, "first", 1));
+                    mSecond.insert(new BenchmarkEntry(2, "second", 2));
+                    throw new IllegalStateException("rollback");
+                }
+            });
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, mFirst.count(null));
+        assertEquals(0, mSecond.count(null));
+    }
+}
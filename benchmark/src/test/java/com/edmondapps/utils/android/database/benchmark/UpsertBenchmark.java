@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+
+/**
+ * Compares {@code insertOrUpdateBunch} with native upsert against the update
+ * then insert fallback, on a batch where half of the entries already exist.
+ * Both variants are labelled with the version of SQLite in use.
+ * </p>
+ * Native upsert requires SQLite 3.24.0, the benchmark module depends on a
+ * recent enough {@code sqlite-jdbc}. The benchmark fails instead of comparing
+ * the fallback with itself if the SQLite library in use is older.
+ * 
+ * @author Edmond
+ * 
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpsertBenchmark {
+    private static final int ROWS = 20000;
+    private static final int ROUNDS = 5;
+
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new BenchmarkDatabase(Robolectric.application, "upsert");
+        mDatabase.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.release();
+    }
+
+    @Test
+    public void mixedBatch() {
+        String version = DatabaseUtils.stringForQuery(mDatabase.getWritableDatabase(), "SELECT sqlite_version()", null);
+        assertTrue("native upsert is unavailable on SQLite " + version, mDatabase.isNativeUpsertAvailable());
+        String engine = " (SQLite " + version + ")";
+        BenchmarkResults.recordMillis("mixed upsert", "update then insert" + engine, ROWS, run(false));
+        BenchmarkResults.recordMillis("mixed upsert", "native upsert" + engine, ROWS, run(true));
+    }
+
+    /**
+     * @return the best time in nanoseconds out of {@link #ROUNDS}
+     */
+    private long run(boolean nativeUpsert) {
+        mDatabase.setNativeUpsertEnabled(nativeUpsert);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            mDatabase.delete((String)null);
+            mDatabase.insertBunch(BenchmarkDatabase.newEntries(1, ROWS / 2), BenchmarkEntry.BINDER);
+
+            // first half exists, the second half is new
+            List<BenchmarkEntry> batch = new ArrayList<BenchmarkEntry>(BenchmarkDatabase.newEntries(1, ROWS));
+
+            long start = System.nanoTime();
+            List<Long> ids = mDatabase.insertOrUpdateBunch(batch);
+            best = Math.min(best, System.nanoTime() - start);
+
+            assertEquals(0L, ids.get(0).longValue());
+            assertEquals(ROWS, ids.get(ROWS - 1).longValue());
+        }
+        return best;
+    }
+}
@@ -0,0 +1,639 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.edmondapps.utils.android.Logs;
+import com.edmondapps.utils.android.Utils;
+
+/**
+ * Executes the operations of a {@link Database} in the background, with a
+ * single writer thread and a bounded pool of reader threads.
+ * </p>
+ * Writes are executed one at a time in the order they were submitted, so they
+ * never wait on each other's locks. Write-ahead logging is enabled on API 11
+ * and above, which lets reads run concurrently with a write and see the last
+ * committed state. Prior to API 11 reads and writes are serialized by SQLite.
+ * </p>
+ * Every operation returns a {@link Future}, and delivers its result to a
+ * {@link Callback} on the main thread unless the {@link Callback} is null. The
+ * {@link Database} is held by {@link Database#acquire()} until
+ * {@link #close()} is called.
+ * </p>
+ * Writes can be committed in groups, see {@link #setGroupCommit(long, int)}.
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            type of DatabaseEntry
+ */
+public class AsyncDatabase<T extends DatabaseEntry> implements Closeable {
+    private static final String TAG = "AsyncDatabase";
+    private static final int DEFAULT_READERS = 2;
+
+    /**
+     * Receives the result of an operation on the main thread. Neither method is
+     * called if the operation was cancelled.
+     * 
+     * @param <R>
+     *            type of the result
+     */
+    public interface Callback<R> {
+        void onResult(R result);
+
+        void onError(Throwable error);
+    }
+
+    private final Database<T> mDatabase;
+    private final ExecutorService mWriter;
+    private final ExecutorService mReaders;
+    private final BlockingQueue<Task<?>> mPendingWrites = new LinkedBlockingQueue<Task<?>>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mClosed;
+    private volatile long mGroupWindowNanos;
+    private volatile int mGroupMaxSize = 1;
+
+    /**
+     * @see #AsyncDatabase(Database, int)
+     */
+    public AsyncDatabase(Database<T> database) {
+        this(database, DEFAULT_READERS);
+    }
+
+    /**
+     * Enables write-ahead logging and acquires the {@link Database}. Must not
+     * be called inside a transaction.
+     * 
+     * @param readers
+     *            maximum number of concurrent reads
+     */
+    public AsyncDatabase(Database<T> database, int readers) {
+        if (readers <= 0) {
+            throw new IllegalArgumentException("readers <= 0: " + readers);
+        }
+        mDatabase = database;
+        if (Utils.hasJellyBean()) {
+            database.setWriteAheadLoggingEnabled(true);
+        }
+        SQLiteDatabase db = database.acquire();
+        if (!Utils.hasJellyBean() && Utils.hasHoneyComb() && !db.enableWriteAheadLogging()) {
+            Logs.w(TAG, "Write-ahead logging is unavailable for " + database.getDatabaseName());
+        }
+        mWriter = newExecutor(1, "writer");
+        mReaders = newExecutor(readers, "reader");
+    }
+
+    public final Database<T> getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Executes the {@code Callable} on a reader thread. It must not write to
+     * the database.
+     */
+    public final <R> Future<R> read(Callable<R> callable) {
+        return read(callable, null);
+    }
+
+    /**
+     * @param callback
+     *            notified on the main thread, may be null
+     * @throws RejectedExecutionException
+     *             if this {@code AsyncDatabase} is closed
+     * @see #read(Callable)
+     */
+    public final <R> Future<R> read(Callable<R> callable, Callback<? super R> callback) {
+        return submit(mReaders, callable, callback);
+    }
+
+    /**
+     * Executes the {@code Callable} on the writer thread, after every write
+     * submitted before it.
+     */
+    public final <R> Future<R> write(Callable<R> callable) {
+        return write(callable, null);
+    }
+
+    /**
+     * @param callback
+     *            notified on the main thread, may be null
+     * @throws RejectedExecutionException
+     *             if this {@code AsyncDatabase} is closed
+     * @see #write(Callable)
+     */
+    public final <R> Future<R> write(Callable<R> callable, Callback<? super R> callback) {
+        if (callable == null) {
+            throw new NullPointerException("callable");
+        }
+        Task<R> task = new Task<R>(callable, callback);
+        // queued before the release of the database, see close()
+        synchronized (this) {
+            checkNotClosed();
+            mPendingWrites.add(task);
+            try {
+                mWriter.execute(mDrainWrites);
+            } catch (RejectedExecutionException e) {
+                mPendingWrites.remove(task);
+                throw e;
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Enables group commit: the writer thread waits up to {@code windowMillis}
+     * for more writes after the first one, and executes up to
+     * {@code maxSize} of them in a single transaction. This saves a
+     * transaction, and the sync to disk that comes with it, per write, at the
+     * cost of up to {@code windowMillis} of latency.
+     * </p>
+     * Each {@link Future} completes with its own result once the whole group
+     * is committed. If any write of the group fails, the group is rolled back
+     * and its writes are executed again one by one, so that only the failing
+     * writes fail. Writes should therefore have no side effects outside the
+     * database.
+     * </p>
+     * Disabled by default.
+     * 
+     * @param windowMillis
+     *            maximum time to wait for the group to fill up, 0 to only group
+     *            the writes already queued
+     * @param maxSize
+     *            maximum number of writes per transaction, 1 to disable group
+     *            commit
+     */
+    public final void setGroupCommit(long windowMillis, int maxSize) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis < 0: " + windowMillis);
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+        }
+        mGroupWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mGroupMaxSize = maxSize;
+    }
+
+    /**
+     * @return true if writes are committed in groups
+     * @see #setGroupCommit(long, int)
+     */
+    public final boolean isGroupCommitEnabled() {
+        return mGroupMaxSize > 1;
+    }
+
+    /**
+     * @see Database#insert(DatabaseEntry)
+     */
+    public final Future<Long> insert(final T t, Callback<? super Long> callback) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mDatabase.insert(t);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#insertOrUpdate(DatabaseEntry)
+     */
+    public final Future<Long> insertOrUpdate(final T t, Callback<? super Long> callback) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mDatabase.insertOrUpdate(t);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#insertBunch(Iterable)
+     */
+    public final Future<List<Long>> insertBunch(final Iterable<? extends T> items, Callback<? super List<Long>> callback) {
+        return write(new Callable<List<Long>>() {
+            @Override
+            public List<Long> call() {
+                return mDatabase.insertBunch(items);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#insertOrUpdateBunch(Iterable)
+     */
+    public final Future<List<Long>> insertOrUpdateBunch(final Iterable<? extends T> items, Callback<? super List<Long>> callback) {
+        return write(new Callable<List<Long>>() {
+            @Override
+            public List<Long> call() {
+                return mDatabase.insertOrUpdateBunch(items);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#update(DatabaseEntry)
+     */
+    public final Future<Integer> update(final T t, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.update(t);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#updateBunch(Iterable)
+     */
+    public final Future<Integer> updateBunch(final Iterable<? extends T> items, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.updateBunch(items);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#delete(long)
+     */
+    public final Future<Integer> delete(final long id, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.delete(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#delete(String, String...)
+     */
+    public final Future<Integer> delete(final String selection, final String[] selectionArgs, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.delete(selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#deleteBunch(Iterable)
+     */
+    public final Future<Integer> deleteBunch(final Iterable<? extends T> items, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.deleteBunch(items);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#deleteIds(long[])
+     */
+    public final Future<Integer> deleteIds(final long[] ids, Callback<? super Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.deleteIds(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#size()
+     */
+    public final Future<Integer> size(Callback<? super Integer> callback) {
+        return read(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.size();
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#count(String, String...)
+     */
+    public final Future<Integer> count(final String selection, final String[] selectionArgs, Callback<? super Integer> callback) {
+        return read(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.count(selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Queries the database and fills the first window of the {@code Cursor} on
+     * a reader thread. Moving the {@code Cursor} past the first window reads
+     * from the database on the calling thread.
+     * 
+     * @see Database#query(String[], String, String...)
+     */
+    public final Future<Cursor> query(final String[] projection, final String selection, final String[] selectionArgs, Callback<? super Cursor> callback) {
+        return read(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                Cursor cursor = mDatabase.query(projection, selection, selectionArgs);
+                try {
+                    cursor.getCount();
+                } catch (RuntimeException e) {
+                    cursor.close();
+                    throw e;
+                }
+                return cursor;
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#queryList(RowMapper, String, String...)
+     */
+    public final <R> Future<List<R>> queryList(final RowMapper<R> mapper, final String selection, final String[] selectionArgs, Callback<? super List<R>> callback) {
+        return read(new Callable<List<R>>() {
+            @Override
+            public List<R> call() {
+                return mDatabase.queryList(mapper, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#queryEntry(RowMapper, long)
+     */
+    public final <R> Future<R> queryEntry(final RowMapper<R> mapper, final long id, Callback<? super R> callback) {
+        return read(new Callable<R>() {
+            @Override
+            public R call() {
+                return mDatabase.queryEntry(mapper, id);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Database#getEntry(long)
+     */
+    public final Future<T> getEntry(final long id, Callback<? super T> callback) {
+        return read(new Callable<T>() {
+            @Override
+            public T call() {
+                return mDatabase.getEntry(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Stops accepting new operations. Operations already submitted are
+     * completed, then the {@link Database} is released. Does not block.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mReaders.shutdown();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mReaders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    mDatabase.release();
+                }
+            }
+        });
+        mWriter.shutdown();
+    }
+
+    /**
+     * @throws RejectedExecutionException
+     *             if this {@code AsyncDatabase} is closed
+     */
+    private <R> Future<R> submit(ExecutorService executor, Callable<R> callable, Callback<? super R> callback) {
+        if (callable == null) {
+            throw new NullPointerException("callable");
+        }
+        Task<R> task = new Task<R>(callable, callback);
+        synchronized (this) {
+            checkNotClosed();
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Must be called while holding the lock of this {@code AsyncDatabase}.
+     */
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new RejectedExecutionException(TAG + " of " + mDatabase.getDatabaseName() + " is closed");
+        }
+    }
+
+    /**
+     * Queued on the writer once per write. Writes are taken from
+     * {@link #mPendingWrites} in order, a run finds the queue empty if its
+     * write was part of an earlier group.
+     */
+    private final Runnable mDrainWrites = new Runnable() {
+        @Override
+        public void run() {
+            Task<?> first = mPendingWrites.poll();
+            if (first == null) {
+                return;
+            }
+            int maxSize = mGroupMaxSize;
+            if (maxSize <= 1) {
+                first.run();
+                return;
+            }
+            List<Task<?>> group = new ArrayList<Task<?>>(Math.min(maxSize, 64));
+            group.add(first);
+            long deadline = System.nanoTime() + mGroupWindowNanos;
+            try {
+                while (group.size() < maxSize) {
+                    Task<?> next = mPendingWrites.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            commitGroup(group);
+        }
+    };
+
+    /**
+     * Executes the writes in a single transaction, or one by one if any of them
+     * fails.
+     */
+    private void commitGroup(List<Task<?>> group) {
+        if (group.size() == 1) {
+            group.get(0).run();
+            return;
+        }
+        Object[] results = new Object[group.size()];
+        boolean committed = false;
+        List<DatabaseChange> changes;
+        DatabaseStats stats = mDatabase.getStats();
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        // the listeners must not see a write that is rolled back then retried
+        mDatabase.deferChanges();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                Task<?> task = group.get(i);
+                if (!task.isDone()) {
+                    results[i] = task.call();
+                }
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } catch (Exception e) {
+            Logs.w(TAG, "Group of " + results.length + " writes rolled back, retrying one by one", e);
+        } finally {
+            db.endTransaction();
+            if (stats != null) {
+                stats.recordTransaction(start);
+            }
+            // reads may have cached the state before the commit
+            mDatabase.invalidateSize();
+            mDatabase.invalidateEntities();
+            mDatabase.invalidateQueries();
+            changes = mDatabase.endDeferredChanges();
+        }
+
+        if (committed) {
+            try {
+                mDatabase.publishChanges(changes);
+            } finally {
+                for (int i = 0; i < results.length; i++) {
+                    group.get(i).complete(results[i]);
+                }
+            }
+        } else {
+            for (Task<?> task : group) {
+                task.run();
+            }
+        }
+    }
+
+    private ExecutorService newExecutor(int threads, final String role) {
+        final String prefix = TAG + " " + mDatabase.getDatabaseName() + " " + role + " #";
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, prefix + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Posts the outcome to the {@link Callback} once done.
+     */
+    private final class Task<R> extends FutureTask<R> {
+        private final Callable<R> mCallable;
+        private final Callback<? super R> mCallback;
+
+        Task(Callable<R> callable, Callback<? super R> callback) {
+            super(callable);
+            mCallable = callable;
+            mCallback = callback;
+        }
+
+        /**
+         * Executes the {@code Callable} without completing this task, see
+         * {@link #complete(Object)}.
+         */
+        R call() throws Exception {
+            return mCallable.call();
+        }
+
+        /**
+         * Completes this task with a result of {@link #call()}.
+         */
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            set((R)result);
+        }
+
+        @Override
+        protected void done() {
+            if ((mCallback == null) || isCancelled()) {
+                return;
+            }
+            R result = null;
+            Throwable error = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                // done() is only called once the result is set
+                error = e;
+            }
+            final R r = result;
+            final Throwable t = error;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (t == null) {
+                        mCallback.onResult(r);
+                    } else {
+                        mCallback.onError(t);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * An immutable snapshot of the counters of a cache used by {@link Database}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class CacheStats {
+    private final int mHitCount;
+    private final int mMissCount;
+    private final int mEvictionCount;
+    private final int mSize;
+    private final int mMaxSize;
+
+    public CacheStats(int hitCount, int missCount, int evictionCount, int size, int maxSize) {
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mEvictionCount = evictionCount;
+        mSize = size;
+        mMaxSize = maxSize;
+    }
+
+    static CacheStats of(LruCache<?, ?> cache) {
+        synchronized (cache) {
+            return new CacheStats(cache.hitCount(), cache.missCount(), cache.evictionCount(), cache.size(), cache.maxSize());
+        }
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return the current size, in the unit used by the cache
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return the ratio of hits to requests, or 0 if there was no request
+     */
+    public float getHitRate() {
+        int requests = mHitCount + mMissCount;
+        return requests == 0 ? 0f : (float)mHitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats [hits=" + mHitCount + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + ", size=" + mSize + "/" + mMaxSize + "]";
+    }
+}
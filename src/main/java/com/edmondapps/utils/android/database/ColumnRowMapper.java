@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.Cursor;
+
+/**
+ * A {@link RowMapper} that resolves the columns given in the constructor, in
+ * the same order.
+ * 
+ * <pre>
+ * new ColumnRowMapper&lt;Person&gt;(BaseColumns._ID, NAME) {
+ *     &#064;Override
+ *     public Person mapRow(Cursor c, int[] columns) {
+ *         return new Person(c.getLong(columns[0]), c.getString(columns[1]));
+ *     }
+ * };
+ * </pre>
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            the type of the object created
+ */
+public abstract class ColumnRowMapper<T> implements RowMapper<T> {
+    private final String[] mColumns;
+
+    protected ColumnRowMapper(String... columns) {
+        mColumns = columns.clone();
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if a column does not exist
+     */
+    @Override
+    public final int[] getColumnIndexes(Cursor cursor) {
+        int[] indexes = new int[mColumns.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = cursor.getColumnIndexOrThrow(mColumns[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return a copy of the columns given in the constructor
+     */
+    public final String[] getColumns() {
+        return mColumns.clone();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+/**
+ * A {@link Migration} rebuilding a table: the rows are copied in batches into
+ * a new table, which then replaces the old one. This is how SQLite changes
+ * column types or constraints, and how rows are transformed on the way with
+ * SQL expressions.
+ * </p>
+ * While the rows are copied, the old table stays in use. Triggers mirror its
+ * inserts, updates and deletes into the new table, so writes made between
+ * batches are not lost. Indexes declared by an {@link IndexedTable} are
+ * created again once every step has run. The {@link FullTextIndex} of a
+ * {@link FullTextTable} is attached to the new table and rebuilt when it
+ * replaces the old one, see
+ * {@link #CopyMigration(int, DatabaseTable, String, String[], String[])}.
+ * 
+ * @author Edmond
+ * 
+ */
+public class CopyMigration extends Migration {
+    private final String mTable;
+    private final String mCopy;
+    private final String mCreateCommand;
+    private final String mColumns;
+    private final String mExpressions;
+    private final FullTextIndex mFullTextIndex;
+
+    /**
+     * Rebuilds the {@link FullTextIndex} of the table, if it is a
+     * {@link FullTextTable}, once the rows are copied.
+     * 
+     * @see #CopyMigration(int, String, String, String[], String[])
+     */
+    public CopyMigration(int version, DatabaseTable table, String createCommand, String[] columns, String[] expressions) {
+        this(version, table.getTableName(), table instanceof FullTextTable ? ((FullTextTable)table).getFullTextIndex() : null, createCommand, columns, expressions);
+    }
+
+    /**
+     * Leaves any full-text index of the table as it is, use
+     * {@link #CopyMigration(int, DatabaseTable, String, String[], String[])}
+     * for a {@link FullTextTable}.
+     * 
+     * @param version
+     *            the table version this step upgrades to
+     * @param tableName
+     *            the table to rebuild, as given by
+     *            {@link DatabaseTable#getTableName()}
+     * @param createCommand
+     *            creates the new table, named {@link #getCopyName(String)}
+     * @param columns
+     *            the columns of the new table to fill, including
+     *            {@link BaseColumns#_ID}
+     * @param expressions
+     *            the value of each column, in terms of the columns of the old
+     *            table; null to copy the columns of the same name
+     */
+    public CopyMigration(int version, String tableName, String createCommand, String[] columns, String[] expressions) {
+        this(version, tableName, null, createCommand, columns, expressions);
+    }
+
+    private CopyMigration(int version, String tableName, FullTextIndex fullTextIndex, String createCommand, String[] columns, String[] expressions) {
+        super(version);
+        if (!Arrays.asList(columns).contains(BaseColumns._ID)) {
+            throw new IllegalArgumentException("columns must include " + BaseColumns._ID + ": " + Arrays.toString(columns));
+        }
+        if ((expressions != null) && (expressions.length != columns.length)) {
+            throw new IllegalArgumentException(columns.length + " columns but " + expressions.length + " expressions");
+        }
+        mTable = tableName;
+        mCopy = getCopyName(tableName);
+        mCreateCommand = createCommand;
+        mColumns = join(columns);
+        mExpressions = join(expressions == null ? columns : expressions);
+        mFullTextIndex = fullTextIndex;
+    }
+
+    /**
+     * @return the name of the new table while the rows are copied
+     */
+    public static String getCopyName(String tableName) {
+        return tableName + "_copy";
+    }
+
+    private static String join(String[] terms) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < terms.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(terms[i]);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Creates the new table and the triggers mirroring writes into it.
+     */
+    @Override
+    protected void onStart(SQLiteDatabase db) {
+        String table = SqlUtils.quoteIdentifier(mTable);
+        String copy = SqlUtils.quoteIdentifier(mCopy);
+        String insert = "INSERT INTO " + copy + " (" + mColumns + ") SELECT " + mExpressions + " FROM " + table + " WHERE " + BaseColumns._ID + " = new." + BaseColumns._ID;
+
+        db.execSQL(mCreateCommand);
+        db.execSQL("CREATE TRIGGER " + trigger("ai") + " AFTER INSERT ON " + table + " BEGIN DELETE FROM " + copy + " WHERE " + BaseColumns._ID + " = new." + BaseColumns._ID + "; " + insert + "; END");
+        db.execSQL("CREATE TRIGGER " + trigger("au") + " AFTER UPDATE ON " + table + " BEGIN DELETE FROM " + copy + " WHERE " + BaseColumns._ID + " IN (old." + BaseColumns._ID + ", new." + BaseColumns._ID + "); " + insert + "; END");
+        db.execSQL("CREATE TRIGGER " + trigger("ad") + " AFTER DELETE ON " + table + " BEGIN DELETE FROM " + copy + " WHERE " + BaseColumns._ID + " = old." + BaseColumns._ID + "; END");
+    }
+
+    /**
+     * Copies the rows not copied yet; rows already mirrored by a trigger are
+     * kept as they are.
+     */
+    @Override
+    protected long onBatch(SQLiteDatabase db, long afterId, int limit) {
+        String table = SqlUtils.quoteIdentifier(mTable);
+        String after = afterId == NO_ROW ? "" : " WHERE " + BaseColumns._ID + " > " + afterId;
+
+        long last;
+        Cursor cursor = db.rawQuery("SELECT MAX(" + BaseColumns._ID + ") FROM (SELECT " + BaseColumns._ID + " FROM " + table + after + " ORDER BY " + BaseColumns._ID + " LIMIT " + limit + ")", null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return NO_ROW;
+            }
+            last = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        String range = (after.length() == 0 ? " WHERE " : after + " AND ") + BaseColumns._ID + " <= " + last;
+        db.execSQL("INSERT OR IGNORE INTO " + SqlUtils.quoteIdentifier(mCopy) + " (" + mColumns + ") SELECT " + mExpressions + " FROM " + table + range);
+        return last;
+    }
+
+    /**
+     * Replaces the old table by the new one. The triggers of the full-text
+     * index are dropped with the old table; they are created again on the new
+     * one, and the index, which still holds the terms of the old rows, is
+     * rebuilt.
+     */
+    @Override
+    protected void onFinish(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + trigger("ai"));
+        db.execSQL("DROP TRIGGER IF EXISTS " + trigger("au"));
+        db.execSQL("DROP TRIGGER IF EXISTS " + trigger("ad"));
+        db.execSQL("DROP TABLE " + SqlUtils.quoteIdentifier(mTable));
+        db.execSQL("ALTER TABLE " + SqlUtils.quoteIdentifier(mCopy) + " RENAME TO " + SqlUtils.quoteIdentifier(mTable));
+        if (mFullTextIndex != null) {
+            for (String command : mFullTextIndex.getCreateCommands()) {
+                db.execSQL(command);
+            }
+            db.execSQL(mFullTextIndex.getRebuildCommand());
+        }
+    }
+
+    private String trigger(String suffix) {
+        return SqlUtils.quoteIdentifier(mCopy + "_" + suffix);
+    }
+
+    @Override
+    public String toString() {
+        return "CopyMigration [version=" + getVersion() + ", table=" + mTable + "]";
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import android.database.Cursor;
+
+/**
+ * An {@link Iterator} that maps each row of a {@link Cursor} with a
+ * {@link RowMapper}. The {@code Cursor} is closed once the last row is
+ * returned, or by {@link #close()} if the iteration stops early.
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            the type of the object created
+ */
+public class CursorIterator<T> implements Iterator<T>, Closeable {
+    private final Cursor mCursor;
+    private final RowMapper<? extends T> mMapper;
+    private final int[] mColumns;
+
+    public CursorIterator(Cursor cursor, RowMapper<? extends T> mapper) {
+        mCursor = cursor;
+        mMapper = mapper;
+        mColumns = mapper.getColumnIndexes(cursor);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mCursor.isClosed()) {
+            return false;
+        }
+        if (mCursor.isLast() || mCursor.isAfterLast() || (mCursor.getCount() == 0)) {
+            mCursor.close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        mCursor.moveToNext();
+        T t = mMapper.mapRow(mCursor, mColumns);
+        if (mCursor.isLast()) {
+            mCursor.close();
+        }
+        return t;
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the {@code Cursor}, it is safe to call this method more than once.
+     */
+    @Override
+    public void close() {
+        if (!mCursor.isClosed()) {
+            mCursor.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.edmondapps.utils.android.Utils;
+
+/**
+ * An immutable in-memory copy of the rows of a {@code Cursor}, which can be
+ * read again any number of times without querying the database.
+ * </p>
+ * Values keep their type on API 11 and above, prior to that every value is
+ * copied as a {@code String}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class CursorSnapshot {
+    private final String[] mColumns;
+    private final List<Object[]> mRows;
+    private volatile int mRowSize = -1;
+
+    private CursorSnapshot(String[] columns, List<Object[]> rows) {
+        mColumns = columns;
+        mRows = rows;
+    }
+
+    /**
+     * Copies every row of the {@code Cursor}, which is left after the last
+     * row and not closed.
+     */
+    public static CursorSnapshot of(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+        boolean typed = Utils.hasHoneyComb();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = typed ? getValue(cursor, i) : cursor.getString(i);
+            }
+            rows.add(row);
+        }
+        return new CursorSnapshot(columns.clone(), Collections.unmodifiableList(rows));
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    public String[] getColumnNames() {
+        return mColumns.clone();
+    }
+
+    /**
+     * @return the index of the column, or -1 if it does not exist
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getCount() {
+        return mRows.size();
+    }
+
+    /**
+     * @return the value of a column, a {@code Long}, a {@code Double}, a
+     *         {@code String}, a {@code byte[]} or null
+     */
+    public Object getValue(int row, int column) {
+        return mRows.get(row)[column];
+    }
+
+    /**
+     * A rough estimate of the memory held by the rows, assuming object headers
+     * of 16 bytes and strings of 2 bytes per character.
+     * 
+     * @return the estimated size in bytes
+     */
+    public int estimateSize() {
+        int size = mRowSize;
+        if (size < 0) {
+            long total = 0;
+            for (Object[] row : mRows) {
+                total += 16 + 4 * row.length;
+                for (Object value : row) {
+                    if (value instanceof String) {
+                        total += 40 + 2 * ((String)value).length();
+                    } else if (value instanceof byte[]) {
+                        total += 16 + ((byte[])value).length;
+                    } else if (value != null) {
+                        total += 16;
+                    }
+                }
+            }
+            size = (int)Math.min(total, Integer.MAX_VALUE);
+            mRowSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * @return a new {@code Cursor} over all the rows
+     */
+    public Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(mColumns, mRows.size());
+        for (Object[] row : mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param rows
+     *            the indexes of the rows to keep, in order
+     * @param count
+     *            the number of indexes used in {@code rows}
+     * @return a new {@code CursorSnapshot} of some of the rows
+     */
+    public CursorSnapshot subset(int[] rows, int count) {
+        List<Object[]> subset = new ArrayList<Object[]>(count);
+        for (int i = 0; i < count; i++) {
+            subset.add(mRows.get(rows[i]));
+        }
+        return new CursorSnapshot(mColumns, Collections.unmodifiableList(subset));
+    }
+
+    @Override
+    public String toString() {
+        return "CursorSnapshot [columns=" + mColumns.length + ", rows=" + mRows.size() + "]";
+    }
+}
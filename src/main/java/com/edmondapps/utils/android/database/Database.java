@@ -20,21 +20,74 @@
 package com.edmondapps.utils.android.database;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.edmondapps.utils.android.Logs;
+import com.edmondapps.utils.android.Utils;
+import com.edmondapps.utils.java.LongArray;
+import com.edmondapps.utils.java.LongConsumer;
+import com.edmondapps.utils.java.LongIterator;
 
 /**
  * A helper class to help implementing a SQLite Database.
  * </p>
  * All write operations are performed in a transaction.
+ * </p>
+ * By default, every operation opens the database and closes it before
+ * returning. Call {@link #acquire()} to keep a single connection open across
+ * operations, and {@link #release()} when done. Calls may be nested; the
+ * connection is closed once every {@link #acquire()} has been matched.
+ * </p>
+ * Inserts, updates and deletes by ID are executed with compiled
+ * {@link SQLiteStatement}s cached per connection. The cache only survives
+ * between calls while the {@code Database} is acquired, see
+ * {@link #getStatementCacheStats()}.
+ * </p>
+ * {@link #insertOrUpdate(DatabaseEntry)} and
+ * {@link #insertOrUpdateBunch(Iterable)} use a single
+ * {@code INSERT ... ON CONFLICT(_id) DO UPDATE} statement when SQLite supports
+ * it (3.24.0 and above) and the entry writes its own {@link BaseColumns#_ID}.
+ * Otherwise an update followed by an insert is performed.
+ * </p>
+ * {@link #size()} can be answered from memory, see
+ * {@link #setSizeCached(boolean)}, so can {@link #getEntry(long)}, see
+ * {@link #setEntityCache(RowMapper, int)}, and so can queries, see
+ * {@link #setQueryCache(int)}.
+ * </p>
+ * Latencies, row counts and slow queries are recorded by a
+ * {@link DatabaseStats}, see {@link #setStats(DatabaseStats)}.
+ * </p>
+ * Writes are published to the {@link DatabaseListener}s registered with
+ * {@link #registerListener(DatabaseListener)}.
+ * </p>
+ * Secondary indexes are declared by an {@link IndexedTable}, see
+ * {@link #findFullScans()} to check queries are using them.
+ * </p>
+ * Several tables can share one file and one connection, see
+ * {@link SharedDatabase}.
  * 
  * @author Edmond
  * 
@@ -45,12 +98,44 @@ import android.provider.BaseColumns;
  * @see DatabaseTable
  */
 public abstract class Database<T extends DatabaseEntry> extends SQLiteOpenHelper {
+    private static final String TAG = "Database";
     private static final String SELECT_ID = BaseColumns._ID + " = ?";
+    private static final int STATEMENT_CACHE_SIZE = 16;
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_VARIABLES = 999;
+    private static final int[] NATIVE_UPSERT_VERSION = {3, 24, 0};
+    private static final String MIGRATIONS = "database_migrations";
+    private static final String SELECT_MIGRATION = "table_name = ? AND version = ?";
+    private static final Keyset ID_KEYSET = new Keyset(null);
 
     private final String mName;
     private DatabaseTable mTable;
     private final Context mContext;
+    private final SharedDatabase mShared;
     private String mOrderBy;
+    private Keyset mKeyset;
+    private int mAcquireCount;
+    private final StatementCache mStatements;
+    /* guarded by mCountLock, compiled and executed outside of it */
+    private final Object mCountLock = new Object();
+    private SQLiteStatement mCountStatement;
+    private SQLiteDatabase mCountDatabase;
+    private volatile boolean mNativeUpsertEnabled = true;
+    private volatile Boolean mNativeUpsertSupported;
+    private volatile boolean mSizeCached;
+    private final Object mSizeLock = new Object();
+    private int mCachedSize = -1;
+    private int mSizeVersion;
+    private volatile EntityCache<T> mEntityCache;
+    private volatile QueryCache mQueryCache;
+    private volatile DatabaseStats mStats;
+    private final List<DatabaseListener> mListeners = new CopyOnWriteArrayList<DatabaseListener>();
+    /* the changes held back on the writing thread, see deferChanges() */
+    private final ThreadLocal<List<DatabaseChange>> mDeferredChanges = new ThreadLocal<List<DatabaseChange>>();
+    private Map<String, String[]> mDeclaredProjections;
+    private final Map<String, String[]> mProjections = new HashMap<String, String[]>();
+    private final Map<String, RegisteredQuery> mRegisteredQueries = new LinkedHashMap<String, RegisteredQuery>();
 
     /**
      * Create a {@code Database} with the given {@link DatabaseTable}.
@@ -62,14 +147,34 @@ public abstract class Database<T extends DatabaseEntry> extends SQLiteOpenHelper
      *            a non-null {@link DatabaseTable}
      */
     public Database(Context context, DatabaseTable table) {
-        this(context, DatabaseUtils.sqlEscapeString(table.getTableName()), table.getTableVersion());
+        this(context, DatabaseUtils.sqlEscapeString(table.getTableName()), DatabaseUtils.sqlEscapeString(table.getTableName()), table.getTableVersion(), null);
+        mTable = table;
+    }
+
+    /**
+     * Create a {@code Database} of a table in the file of a
+     * {@link SharedDatabase}, which opens, creates and upgrades it. The
+     * version of the {@link DatabaseTable} is not used.
+     * 
+     * @param shared
+     *            the file hosting the table
+     * @param table
+     *            a non-null {@link DatabaseTable}
+     * @throws IllegalStateException
+     *             if the file already hosts a table of the same name
+     */
+    public Database(SharedDatabase shared, DatabaseTable table) {
+        this(shared.getContext(), shared.getDatabaseName(), DatabaseUtils.sqlEscapeString(table.getTableName()), table.getTableVersion(), shared);
         mTable = table;
+        shared.add(this);
     }
 
-    private Database(Context context, String escapedName, int version) {
-        super(context, escapedName, null, version);
+    private Database(Context context, String fileName, String escapedName, int version, SharedDatabase shared) {
+        super(context, fileName, null, version);
         mContext = context;
         mName = escapedName;
+        mShared = shared;
+        mStatements = new StatementCache(escapedName, SELECT_ID, STATEMENT_CACHE_SIZE);
     }
 
     /**
@@ -87,305 +192,1790 @@ public abstract class Database<T extends DatabaseEntry> extends SQLiteOpenHelper
         return mTable;
     }
 
-    public final Context getContext() {
-        return mContext;
+    /**
+     * @return the file hosting the table, or null if the table has its own
+     *         file
+     */
+    public final SharedDatabase getSharedDatabase() {
+        return mShared;
     }
 
-    public final String getOrderBy() {
-        return mOrderBy;
+    /**
+     * @return the connection of the {@link SharedDatabase} if any
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        return mShared == null ? super.getWritableDatabase() : mShared.getWritableDatabase();
     }
 
     /**
-     * {@link SQLiteDatabase#execSQL(String)} will be executed with the
-     * {@code String} returned by {@link DatabaseTable#onCreateTableCommand()}.
-     * The {@link BaseColumns#_ID} column must exist for all the methods in this
-     * class to function properly.
+     * @return the connection of the {@link SharedDatabase} if any
      */
     @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.execSQL(mTable.onCreateTableCommand());
+    public SQLiteDatabase getReadableDatabase() {
+        return mShared == null ? super.getReadableDatabase() : mShared.getReadableDatabase();
     }
 
     /**
-     * Does nothing by default.
+     * Applies to the {@link SharedDatabase} if any, and so to all of its
+     * tables.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        if (mShared == null) {
+            super.setWriteAheadLoggingEnabled(enabled);
+        } else {
+            mShared.setWriteAheadLoggingEnabled(enabled);
+        }
+    }
+
+    public final Context getContext() {
+        return mContext;
+    }
+
+    public final String getOrderBy() {
+        return mOrderBy;
     }
 
     /**
-     * Query the database and count the length of all entries.
+     * Opens the database and keeps it open until a matching call to
+     * {@link #release()}. While acquired, operations reuse the same connection
+     * instead of opening and closing the database every time.
+     * </p>
+     * Calls may be nested, each of them must be matched by a
+     * {@link #release()}, usually in a {@code finally} block.
      * 
-     * @return the length of entries
+     * @return the writable {@link SQLiteDatabase} being held
      */
-    public final int size() {
-        return countSize(getReadableDatabase(), true);
+    public final SQLiteDatabase acquire() {
+        synchronized (this) {
+            mAcquireCount++;
+        }
+        boolean opened = false;
+        try {
+            SQLiteDatabase db = mShared == null ? getWritableDatabase() : mShared.acquire();
+            opened = true;
+            return db;
+        } finally {
+            if (!opened) {
+                synchronized (this) {
+                    mAcquireCount--;
+                }
+            }
+        }
     }
 
-    private final int countSize(SQLiteDatabase db, boolean autoClose) {
-        // new String[0] because null means all columns, which we don't need
-        Cursor cursor = db.query(mName, new String[0], null, null, null, null, null);
-        int count = cursor.getCount();
-        cursor.close();
-        if (autoClose) {
-            db.close();
+    /**
+     * Releases a connection held by {@link #acquire()}. The database is closed
+     * when the last holder releases it, or for a {@link SharedDatabase}, when
+     * the last holder of any of its tables releases it.
+     * 
+     * @throws IllegalStateException
+     *             if there is no matching call to {@link #acquire()}
+     */
+    public final synchronized void release() {
+        if (mAcquireCount <= 0) {
+            throw new IllegalStateException("release() called without a matching acquire()");
+        }
+        mAcquireCount--;
+        if (mAcquireCount == 0) {
+            close();
+        }
+        if (mShared != null) {
+            mShared.release();
         }
-        return count;
     }
 
     /**
-     * 
-     * @return a {@code long[]} that contains all the IDs in the database.
+     * @return true if the connection is held open by {@link #acquire()}
      */
-    public final long[] getIds() {
-        SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(mName, new String[] {BaseColumns._ID}, null, null, null, null, null);
+    public final synchronized boolean isAcquired() {
+        return mAcquireCount > 0;
+    }
 
-        long[] ids = new long[cursor.getCount()];
-        for (int i = 0; cursor.moveToNext(); i++) {
-            ids[i] = cursor.getLong(cursor.getColumnIndex(BaseColumns._ID));
+    /**
+     * Closes the compiled statements before closing the database. The
+     * connection of a {@link SharedDatabase} is left to its holders.
+     */
+    @Override
+    public synchronized void close() {
+        clearStatements();
+        if (mShared == null) {
+            super.close();
         }
+    }
 
-        cursor.close();
-        database.close();
-
-        return ids;
+    /**
+     * @return the hit and miss counts of the compiled statement cache
+     */
+    public final CacheStats getStatementCacheStats() {
+        return mStatements.getStats();
     }
 
     /**
-     * Performs a query with the given ID. The {@link BaseColumns#_ID} column
-     * must exist for this method to function properly.
+     * Native upsert is enabled by default and only used when supported by the
+     * SQLite library of the device.
      * 
-     * @param id
-     *            the ID to search for
-     * @return the {@code Cursor} as specified by
-     *         {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String)}
+     * @param enabled
+     *            false to always update then insert in
+     *            {@link #insertOrUpdate(DatabaseEntry)} and
+     *            {@link #insertOrUpdateBunch(Iterable)}
      */
-    public final Cursor query(long id) {
-        return query(SELECT_ID, String.valueOf(id));
+    public final void setNativeUpsertEnabled(boolean enabled) {
+        mNativeUpsertEnabled = enabled;
+    }
+
+    public final boolean isNativeUpsertEnabled() {
+        return mNativeUpsertEnabled;
     }
 
     /**
-     * Updates the {@link Database} using its ID as selection.
+     * Opens the database if needed to check the version of SQLite.
      * 
-     * @param t
-     *            a non-null instance of {@link DatabaseEntry}
-     * @return number of updated rows
+     * @return true if the SQLite library supports native upsert
      */
-    public final int update(T t) {
-        return performUpdate(getWritableDatabase(), t, true);
+    public final boolean isNativeUpsertAvailable() {
+        SQLiteDatabase db = getReadableDatabase();
+        try {
+            return isNativeUpsertSupported(db);
+        } finally {
+            closeIfNotAcquired(db);
+        }
     }
 
     /**
-     * Updates the {@link Database} using the given selection.
+     * Keeps up to {@code maxSize} entries read by {@link #getEntry(long)} in
+     * memory, keyed by their IDs. Every write performed by this class removes
+     * the entries it may have changed. Writes by selection and
+     * {@link #insertOrUpdateBunch(Iterable)} clear the cache.
+     * </p>
+     * Call {@link #invalidateEntities()} after writing to the table without
+     * going through this class.
      * 
-     * @param t
-     *            a non-null instance of {@link DatabaseEntry}
-     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
-     * @return number of updated rows
+     * @param mapper
+     *            creates the entries read from the database, or null to disable
+     *            the cache
+     * @param maxSize
+     *            maximum number of entries kept
      */
-    public final int update(T t, String whereClause, String... whereArgs) {
-        return performUpdate(getReadableDatabase(), t, true, whereClause, whereArgs);
+    public final void setEntityCache(RowMapper<? extends T> mapper, int maxSize) {
+        if (mapper == null) {
+            mEntityCache = null;
+        } else {
+            mEntityCache = new EntityCache<T>(mapper, maxSize);
+        }
     }
 
     /**
-     * @see #delete(long)
+     * @return the hit, miss and eviction counts of the entity cache, or null
+     *         if {@link #setEntityCache(RowMapper, int)} is not set
      */
-    public final int delete(T t) {
-        return delete(t.getId());
+    public final CacheStats getEntityCacheStats() {
+        EntityCache<T> cache = mEntityCache;
+        return cache == null ? null : cache.getStats();
     }
 
     /**
-     * Deletes the entry associated with the given ID.
+     * Removes all the entries kept in memory.
      * 
-     * @param id
-     *            id of the entry
-     * @return number of rows deleted
+     * @see #setEntityCache(RowMapper, int)
      */
-    public final int delete(long id) {
-        return delete(SELECT_ID, String.valueOf(id));
+    public final void invalidateEntities() {
+        EntityCache<T> cache = mEntityCache;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     /**
-     * Deletes the entry by the given selection.
-     * 
-     * @see SQLiteDatabase#delete(String, String, String[])
-     * @return number of rows deleted
+     * Publishes every successful write performed by this class to the
+     * listener, with the IDs of the rows written when they are known. Writes
+     * joined with a transaction of the caller are published before that
+     * transaction commits, except for the group commits of an
+     * {@link AsyncDatabase}, published once committed.
      */
-    public final int delete(String selection, String... selectionArgs) {
-        SQLiteDatabase db = getWritableDatabase();
-        int deleted = db.delete(mName, selection, selectionArgs);
-        db.close();
-        return deleted;
+    public final void registerListener(DatabaseListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        mListeners.add(listener);
+    }
+
+    public final void unregisterListener(DatabaseListener listener) {
+        mListeners.remove(listener);
     }
 
     /**
-     * Used by all the query operations.
+     * Records the latencies and row counts of the operations of this class,
+     * and logs slow reads. When no {@link DatabaseStats} is set, operations
+     * only check for it and do not read the clock.
+     * </p>
+     * While recording, queries read their rows before returning, so the
+     * latency includes executing them.
      * 
-     * @see SQLiteDatabase#query(String, String[], String, String[], String,
-     *      String, String)
+     * @param stats
+     *            null to stop recording, the default
      */
-    public final void setOrderBy(String orderBy) {
-        mOrderBy = orderBy;
+    public final void setStats(DatabaseStats stats) {
+        mStats = stats;
     }
 
     /**
-     * Query all the rows in the database, ordered by {@link #getOrderBy()}.
-     * 
-     * @see SQLiteDatabase#query(String, String[], String, String[], String,
-     *      String, String)
+     * @return the {@link DatabaseStats} being recorded, or null
      */
-    public final Cursor query() {
-        return query(null, (String[])null);
+    public final DatabaseStats getStats() {
+        return mStats;
     }
 
     /**
-     * Query the database with the given selections.
+     * Keeps the results of {@link #query(String[], String, String...)} and its
+     * overloads in memory, keyed by the projection, the selection, its
+     * arguments, the order and the limit. A hit returns a new {@code Cursor}
+     * over the rows kept, without querying the database. Results are copied to
+     * memory in full, so the cache suits small results read repeatedly.
+     * </p>
+     * Every write performed by this class clears the cache. Call
+     * {@link #invalidateQueries()} after writing to the table without going
+     * through this class, or after committing a transaction of the caller that
+     * contained writes.
      * 
-     * @see SQLiteDatabase#query(String, String[], String, String[], String,
-     *      String, String)
+     * @param maxBytes
+     *            the estimated memory used by the results kept, 0 to disable
+     *            the cache
+     * @see CursorSnapshot#estimateSize()
      */
-    public final Cursor query(String selection, String... selectionArgs) {
-        return getReadableDatabase().query(mName, null, selection, selectionArgs, null, null, mOrderBy);
+    public final void setQueryCache(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+        }
+        mQueryCache = maxBytes == 0 ? null : new QueryCache(maxBytes);
     }
 
     /**
-     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     * @return the hit, miss and eviction counts of the query cache, with its
+     *         size in bytes, or null if {@link #setQueryCache(int)} is not set
      */
-    public final long insert(T t) {
-        return performInsert(getWritableDatabase(), t, true);
+    public final CacheStats getQueryCacheStats() {
+        QueryCache cache = mQueryCache;
+        return cache == null ? null : cache.getStats();
     }
 
     /**
-     * First attempt to update the database by ID, then inserts the entry if it
-     * fails to update (a new entry).
+     * Removes all the query results kept in memory.
      * 
-     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
-     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     * @see #setQueryCache(int)
      */
-    public final long insertOrUpdate(T t) {
-        return insertOrUpdate(t, SELECT_ID, wrapId(t));
+    public final void invalidateQueries() {
+        QueryCache cache = mQueryCache;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     /**
-     * First attempt to update the database by the given selection, then inserts
-     * the entry if it fails to update (a new entry).
+     * Returns the entry with the given ID from the entity cache, or reads and
+     * caches it on a miss.
      * 
-     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
-     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     * @return the entry, or null if no entry has the given ID
+     * @throws IllegalStateException
+     *             if {@link #setEntityCache(RowMapper, int)} is not set
      */
-    public final long insertOrUpdate(T t, String whereClause, String... whereArgs) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
+    public final T getEntry(long id) {
+        EntityCache<T> cache = mEntityCache;
+        if (cache == null) {
+            throw new IllegalStateException("setEntityCache() must be called first");
+        }
+        T t = cache.get(id);
+        if (t == null) {
+            int version = cache.getVersion();
+            t = queryEntry(cache.getMapper(), id);
+            cache.put(id, t, version);
+        }
+        return t;
+    }
 
-        long id = -1;
-        try {
-            ContentValues values = t.toContentValues(mTable);
-            int updated = db.update(mName, values, whereClause, whereArgs);
-            if (updated <= 0) {
-                id = db.insert(mName, null, values);
-            }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            db.close();
+    /**
+     * {@link SQLiteDatabase#execSQL(String)} will be executed with the
+     * {@code String} returned by {@link DatabaseTable#onCreateTableCommand()}.
+     * The {@link BaseColumns#_ID} column must exist for all the methods in this
+     * class to function properly.
+     * </p>
+     * The indexes of an {@link IndexedTable} and the {@link FullTextIndex} of
+     * a {@link FullTextTable} are created afterwards.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(mTable.onCreateTableCommand());
+        createIndexes(db);
+    }
+
+    /**
+     * Schedules the {@link Migration}s of a {@link MigratingTable}, see
+     * {@link #scheduleMigrations(SQLiteDatabase, int, int)}, otherwise creates
+     * the indexes of an {@link IndexedTable} or a {@link FullTextTable} that do
+     * not exist yet by default. Subclasses overriding this method should call
+     * {@link #createIndexes(SQLiteDatabase)} once the table is upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!scheduleMigrations(db, oldVersion, newVersion) && !hasPendingMigrations(db)) {
+            createIndexes(db);
         }
-        return id;
     }
 
     /**
-     * Insert a collection of entries to the database. A null entry is ignored
-     * and is represented by a null element in the returned {@code List<Long>}.
-     * A inserted entry is represented by an ID.
+     * Records the {@link Migration}s of a {@link MigratingTable} after
+     * {@code oldVersion} up to {@code newVersion}, to be run by
+     * {@link #migrate(Migration.Listener)}. Nothing is migrated inside
+     * {@code onUpgrade}, which runs in a single transaction.
      * 
-     * @param items
-     *            usually a {@link Collection} that contains the entries
-     * @return a {@code List<Long>} that contains all the IDs in the same order
-     *         of the {@code Iterator}.
-     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     * @return true if a migration was recorded
      */
-    public final List<Long> insertBunch(Iterable<? extends T> items) {
-        List<Long> ids = new ArrayList<Long>();
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
-        try {
-            for (T t : items) {
-                if (t == null) {
-                    ids.add(null);
-                } else {
-                    ids.add(Long.valueOf(db.insert(mName, null, t.toContentValues(mTable))));
+    protected final boolean scheduleMigrations(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!(mTable instanceof MigratingTable)) {
+            return false;
+        }
+        List<Migration> migrations = ((MigratingTable)mTable).getMigrations();
+        if (migrations == null) {
+            return false;
+        }
+        boolean scheduled = false;
+        for (Migration migration : migrations) {
+            int version = migration.getVersion();
+            if ((version > oldVersion) && (version <= newVersion)) {
+                if (!scheduled) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + MIGRATIONS + " (table_name TEXT NOT NULL, version INTEGER NOT NULL, started INTEGER NOT NULL DEFAULT 0, after_id INTEGER, batches INTEGER NOT NULL DEFAULT 0, elapsed INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (table_name, version))");
+                    scheduled = true;
                 }
+                db.execSQL("INSERT OR IGNORE INTO " + MIGRATIONS + " (table_name, version) VALUES (?, ?)", new Object[] {mTable.getTableName(), version});
             }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            db.close();
         }
-        return ids;
+        return scheduled;
     }
 
     /**
-     * Insert a collection of entries to the database. Each entry is updated
-     * by ID first, if it fails, an insertion is performed.
+     * @return true if {@link #migrate(Migration.Listener)} has migrations to
+     *         run
+     */
+    public final boolean hasPendingMigrations() {
+        return hasPendingMigrations(getReadableDatabase());
+    }
+
+    private boolean hasPendingMigrations(SQLiteDatabase db) {
+        if (!(mTable instanceof MigratingTable)) {
+            return false;
+        }
+        if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] {MIGRATIONS}) == 0) {
+            return false;
+        }
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + MIGRATIONS + " WHERE table_name = ?", new String[] {mTable.getTableName()}) > 0;
+    }
+
+    /**
+     * Runs the migrations recorded on upgrade, in order of version, then
+     * creates the indexes. Each batch of rows is committed with the progress of
+     * its step, so a migration interrupted by a process kill resumes where it
+     * stopped. Does nothing if no migration is pending.
      * </p>
-     * A null entry is not inserted/updated and is represented by a null element
-     * in the returned {@code List<Long>}. An updated entry is represented by a
-     * zero. An inserted entry is represented by an ID.
+     * Call on a background thread, typically once when the app starts and
+     * before the table is used with its new schema.
      * 
-     * @param items
-     *            usually a {@link Collection} that contains the entries
-     * @return a {@code List<Long>} that contains all the IDs in the same order
-     *         of the {@code Iterator}.
-     * @see SQLiteDatabase#insert(String, String, ContentValues)
-     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     * @param listener
+     *            notified of each completed step, may be null
+     * @return the number of steps completed
+     * @throws IllegalStateException
+     *             if no {@link Migration} upgrades to a recorded version
      */
-    public final List<Long> insertOrUpdateBunch(Iterable<? extends T> items) {
-        List<Long> ids = new ArrayList<Long>();
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
+    public final int migrate(Migration.Listener listener) {
+        SQLiteDatabase db = acquire();
         try {
-            for (T t : items) {
-                if (t == null) {
-                    ids.add(null);
-                    continue;
+            if (!hasPendingMigrations(db)) {
+                return 0;
+            }
+            Map<Integer, Migration> migrations = new HashMap<Integer, Migration>();
+            for (Migration migration : ((MigratingTable)mTable).getMigrations()) {
+                migrations.put(migration.getVersion(), migration);
+            }
+
+            List<long[]> pending = new ArrayList<long[]>();
+            Cursor cursor = db.query(MIGRATIONS, new String[] {"version", "started", "after_id", "batches", "elapsed"}, "table_name = ?", new String[] {mTable.getTableName()}, null, null, "version ASC");
+            try {
+                while (cursor.moveToNext()) {
+                    pending.add(new long[] {cursor.getLong(0), cursor.getLong(1), cursor.isNull(2) ? Migration.NO_ROW : cursor.getLong(2), cursor.getLong(3), cursor.getLong(4)});
                 }
+            } finally {
+                cursor.close();
+            }
 
-                ContentValues values = t.toContentValues(mTable);
-                int updated = db.update(mName, values, SELECT_ID, wrapId(t));
-                if (updated > 0) {
-                    ids.add(Long.valueOf(0L));// updated
-                } else {
-                    ids.add(db.insert(mName, null, values));// insert
+            for (long[] state : pending) {
+                Migration migration = migrations.get((int)state[0]);
+                if (migration == null) {
+                    throw new IllegalStateException("no migration of " + mName + " to version " + state[0]);
                 }
+                runMigration(db, migration, state[1] != 0, state[2], (int)state[3], state[4], listener);
             }
-            db.setTransactionSuccessful();
+
+            db.beginTransaction();
+            try {
+                createIndexes(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return pending.size();
         } finally {
-            db.endTransaction();
-            db.close();
+            invalidateSize();
+            invalidateEntities();
+            invalidateQueries();
+            release();
         }
-        return ids;
     }
 
-    private final long performInsert(SQLiteDatabase db, T t, boolean autoClose) {
-        db.beginTransaction();
-        long id;
-        try {
-            id = db.insert(mName, null, t.toContentValues(mTable));
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            if (autoClose) {
-                db.close();
+    private void runMigration(SQLiteDatabase db, Migration migration, boolean started, long afterId, int batches, long elapsed, Migration.Listener listener) {
+        String[] args = {mTable.getTableName(), String.valueOf(migration.getVersion())};
+        if (!started) {
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.onStart(db);
+                ContentValues values = new ContentValues();
+                values.put("started", 1);
+                values.put("elapsed", elapsed + (SystemClock.elapsedRealtime() - start));
+                db.update(MIGRATIONS, values, SELECT_MIGRATION, args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
+            elapsed += SystemClock.elapsedRealtime() - start;
         }
-        return id;
-    }
 
-    private final int performUpdate(SQLiteDatabase db, T t, boolean autoClose) {
-        return performUpdate(db, t, autoClose, SELECT_ID, wrapId(t));
-    }
+        while (true) {
+            long start = SystemClock.elapsedRealtime();
+            long last;
+            db.beginTransaction();
+            try {
+                last = migration.onBatch(db, afterId, migration.getBatchSize());
+                if (last == Migration.NO_ROW) {
+                    migration.onFinish(db);
+                    db.delete(MIGRATIONS, SELECT_MIGRATION, args);
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put("after_id", last);
+                    values.put("batches", batches + 1);
+                    values.put("elapsed", elapsed + (SystemClock.elapsedRealtime() - start));
+                    db.update(MIGRATIONS, values, SELECT_MIGRATION, args);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            elapsed += SystemClock.elapsedRealtime() - start;
+            if (last == Migration.NO_ROW) {
+                break;
+            }
+            afterId = last;
+            batches++;
+        }
 
-    private final int performUpdate(SQLiteDatabase db, T t, boolean autoClose, String whereClause, String... whereArgs) {
+        Logs.i(TAG, "Migrated " + mName + " to version " + migration.getVersion() + " in " + batches + " batches, " + elapsed + " ms");
+        if (listener != null) {
+            listener.onMigrated(this, migration, batches, elapsed);
+        }
+    }
+
+    /**
+     * Creates the indexes declared by the {@link IndexedTable} and the
+     * {@link FullTextIndex} of the {@link FullTextTable}, unless they already
+     * exist. A new {@link FullTextIndex} is filled with the existing rows. Does
+     * nothing for other tables.
+     */
+    protected final void createIndexes(SQLiteDatabase db) {
+        if (mTable instanceof IndexedTable) {
+            List<DatabaseIndex> indexes = ((IndexedTable)mTable).getIndexes();
+            if (indexes != null) {
+                for (DatabaseIndex index : indexes) {
+                    db.execSQL(index.getCreateCommand(mName));
+                }
+            }
+        }
+        if (mTable instanceof FullTextTable) {
+            FullTextIndex index = ((FullTextTable)mTable).getFullTextIndex();
+            if (index != null) {
+                boolean exists = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] {index.getName()}) > 0;
+                for (String command : index.getCreateCommands()) {
+                    db.execSQL(command);
+                }
+                if (!exists) {
+                    db.execSQL(index.getRebuildCommand());
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a query to be checked by {@link #findFullScans()}, typically
+     * the selections of a {@link DatabaseFilter} or of a screen. Registering a
+     * name again replaces the query.
+     * 
+     * @param name
+     *            identifies the query in the results
+     * @param projection
+     *            the columns read, null for all the columns
+     * @param selectionArgs
+     *            representative arguments, they may change the plan
+     */
+    public final void registerQuery(String name, String[] projection, String selection, String... selectionArgs) {
+        synchronized (mRegisteredQueries) {
+            mRegisteredQueries.put(name, new RegisteredQuery(projection, selection, selectionArgs));
+        }
+    }
+
+    /**
+     * Runs {@code EXPLAIN QUERY PLAN} on a query as it would be executed by
+     * {@link #query(String[], String, String...)}, ordered by
+     * {@link #getOrderBy()}.
+     */
+    public final QueryPlan explain(String[] projection, String selection, String... selectionArgs) {
+        String sql = buildSelect(projection, selection, mOrderBy, null);
+        SQLiteDatabase db = getReadableDatabase();
+        try {
+            return QueryPlan.explain(db, sql, selectionArgs);
+        } finally {
+            closeIfNotAcquired(db);
+        }
+    }
+
+    /**
+     * Explains every query registered with
+     * {@link #registerQuery(String, String[], String, String...)} and logs a
+     * warning for each one reading the whole table or a whole index, or
+     * sorting the rows without an index. Meant for debug builds and tests.
+     * 
+     * @return the plans of the queries doing a full scan or a sort, keyed by
+     *         name
+     */
+    public final Map<String, QueryPlan> findFullScans() {
+        Map<String, RegisteredQuery> queries;
+        synchronized (mRegisteredQueries) {
+            queries = new LinkedHashMap<String, RegisteredQuery>(mRegisteredQueries);
+        }
+        Map<String, QueryPlan> scans = new LinkedHashMap<String, QueryPlan>();
+        for (Map.Entry<String, RegisteredQuery> entry : queries.entrySet()) {
+            RegisteredQuery query = entry.getValue();
+            QueryPlan plan = explain(query.projection, query.selection, query.selectionArgs);
+            if (plan.isFullScan()) {
+                String scanned = plan.isIndexScan() ? "a whole index" : "the whole table";
+                Logs.w(TAG, "Query " + entry.getKey() + " is scanning " + scanned + ": " + plan);
+                scans.put(entry.getKey(), plan);
+            } else if (plan.usesTempBTree()) {
+                Logs.w(TAG, "Query " + entry.getKey() + " is not using an index: " + plan);
+                scans.put(entry.getKey(), plan);
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Count the length of all entries with {@code SELECT COUNT(*)}, or return
+     * the count kept in memory if {@link #setSizeCached(boolean)} is enabled
+     * and the count is known.
+     * 
+     * @return the length of entries
+     */
+    public final int size() {
+        if (!mSizeCached) {
+            return count(null);
+        }
+
+        int version;
+        synchronized (mSizeLock) {
+            if (mCachedSize >= 0) {
+                return mCachedSize;
+            }
+            version = mSizeVersion;
+        }
+        int size = count(null);
+        synchronized (mSizeLock) {
+            // a write during the count makes it stale
+            if (version == mSizeVersion) {
+                mCachedSize = size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Count the entries matching the given selection with
+     * {@code SELECT COUNT(*)}. Counting all the entries reuses a compiled
+     * statement on API 16 and above.
+     * 
+     * @param selection
+     *            the {@code WHERE} clause, or null to count all the entries
+     * @return the number of entries matching the selection
+     */
+    public final int count(String selection, String... selectionArgs) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        boolean all = TextUtils.isEmpty(selection);
+        String sql = "SELECT COUNT(*) FROM " + mName;
+        if (!all) {
+            sql += " WHERE " + selection;
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        try {
+            int count = (int)(all ? countAll(db, sql) : DatabaseUtils.longForQuery(db, sql, selectionArgs));
+            if (stats != null) {
+                onRead(stats, DatabaseStats.COUNT, start, 0, db, sql, selectionArgs);
+            }
+            return count;
+        } finally {
+            closeIfNotAcquired(db);
+        }
+    }
+
+    /**
+     * Executes the compiled {@code SELECT COUNT(*)} of the table. It is kept
+     * apart from the {@link StatementCache}, whose lock is held by writes in a
+     * transaction: compiling or executing under that lock would wait for the
+     * connection the writer holds. The statement is compiled and executed
+     * without any lock, with a reference of its own, which is only safe on API
+     * 16 and above; prior to that the query is compiled every time.
+     */
+    private final long countAll(SQLiteDatabase db, String sql) {
+        if (!Utils.hasJellyBean()) {
+            return DatabaseUtils.longForQuery(db, sql, null);
+        }
+        SQLiteStatement statement;
+        synchronized (mCountLock) {
+            statement = mCountDatabase == db ? mCountStatement : null;
+            if (statement != null) {
+                statement.acquireReference();
+            }
+        }
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statement.acquireReference();
+            synchronized (mCountLock) {
+                if (mCountStatement != null) {
+                    mCountStatement.close();
+                }
+                mCountStatement = statement;
+                mCountDatabase = db;
+            }
+        }
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    /**
+     * Keeps the length of entries in memory once counted, so {@link #size()}
+     * does not query the database. Every write performed by this class keeps
+     * the count in sync.
+     * </p>
+     * The count is dropped when a write is joined with a transaction of the
+     * caller, since it may be rolled back. Call {@link #invalidateSize()} after
+     * writing to the table without going through this class.
+     * 
+     * @param cached
+     *            true to keep the count in memory, false by default
+     */
+    public final void setSizeCached(boolean cached) {
+        synchronized (mSizeLock) {
+            mSizeCached = cached;
+            mCachedSize = -1;
+            mSizeVersion++;
+        }
+    }
+
+    public final boolean isSizeCached() {
+        return mSizeCached;
+    }
+
+    /**
+     * Drops the count kept in memory, the next call to {@link #size()} queries
+     * the database.
+     * 
+     * @see #setSizeCached(boolean)
+     */
+    public final void invalidateSize() {
+        synchronized (mSizeLock) {
+            mCachedSize = -1;
+            mSizeVersion++;
+        }
+    }
+
+    /**
+     * Loads all the IDs at once, see {@link #iterateIds()} for large tables.
+     * 
+     * @return a {@code long[]} that contains all the IDs in the database.
+     */
+    public final long[] getIds() {
+        SQLiteDatabase database = getReadableDatabase();
+        Cursor cursor = timedQuery(database, DatabaseStats.QUERY_IDS, new String[] {BaseColumns._ID}, null, null, null);
+
+        long[] ids = new long[cursor.getCount()];
+        int column = cursor.getColumnIndex(BaseColumns._ID);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(column);
+        }
+
+        cursor.close();
+        closeIfNotAcquired(database);
+
+        return ids;
+    }
+
+    /**
+     * @see #iterateIds(int)
+     */
+    public final LongIterator iterateIds() {
+        return iterateIds(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Iterates all the IDs in ascending order, loading {@code pageSize} IDs at
+     * a time with {@code _id > ? ORDER BY _id LIMIT pageSize}, so the memory
+     * used does not depend on the size of the table.
+     * </p>
+     * Each page is a separate query. IDs inserted or deleted during the
+     * iteration may or may not be returned. Hold the connection with
+     * {@link #acquire()} to avoid opening the database for every page.
+     * 
+     * @param pageSize
+     *            maximum number of IDs loaded at a time
+     * @return a {@link LongIterator} of all the IDs in the database
+     */
+    public final LongIterator iterateIds(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize <= 0: " + pageSize);
+        }
+        return new IdIterator(pageSize);
+    }
+
+    /**
+     * @see #forEachId(LongConsumer, int)
+     */
+    public final void forEachId(LongConsumer consumer) {
+        forEachId(consumer, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Passes all the IDs to the {@link LongConsumer} in ascending order.
+     * 
+     * @see #iterateIds(int)
+     */
+    public final void forEachId(LongConsumer consumer, int pageSize) {
+        LongIterator it = iterateIds(pageSize);
+        while (it.hasNext()) {
+            consumer.accept(it.next());
+        }
+    }
+
+    /**
+     * Performs a query with the given ID. The {@link BaseColumns#_ID} column
+     * must exist for this method to function properly.
+     * 
+     * @param id
+     *            the ID to search for
+     * @return the {@code Cursor} as specified by
+     *         {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String)}
+     */
+    public final Cursor query(long id) {
+        return query(SELECT_ID, String.valueOf(id));
+    }
+
+    /**
+     * Performs a query with the given ID, reading only the columns of the
+     * projection.
+     * 
+     * @param projection
+     *            the columns to read, null for all the columns
+     * @see #getProjection(String)
+     */
+    public final Cursor query(String[] projection, long id) {
+        return query(projection, SELECT_ID, String.valueOf(id));
+    }
+
+    /**
+     * Returns a projection declared by the {@link ProjectionTable}. It is
+     * validated by compiling a query against the table the first time it is
+     * requested.
+     * 
+     * @param name
+     *            the name of the projection
+     * @return the columns of the projection, do not modify the array
+     * @throws IllegalArgumentException
+     *             if the table is not a {@link ProjectionTable} or does not
+     *             declare the projection
+     * @throws SQLException
+     *             if the projection is not valid for the table
+     */
+    public final String[] getProjection(String name) {
+        synchronized (mProjections) {
+            String[] projection = mProjections.get(name);
+            if (projection != null) {
+                return projection;
+            }
+
+            if (mDeclaredProjections == null) {
+                if (!(mTable instanceof ProjectionTable)) {
+                    throw new IllegalArgumentException(mTable.getTableName() + " is not a ProjectionTable");
+                }
+                mDeclaredProjections = new HashMap<String, String[]>(((ProjectionTable)mTable).getProjections());
+            }
+            projection = mDeclaredProjections.get(name);
+            if (projection == null) {
+                throw new IllegalArgumentException(mTable.getTableName() + " does not declare the projection " + name);
+            }
+
+            projection = projection.clone();
+            validateProjection(projection);
+            mProjections.put(name, projection);
+            return projection;
+        }
+    }
+
+    private final void validateProjection(String[] projection) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        appendProjection(sql, projection);
+        sql.append(" FROM ").append(mName).append(" LIMIT 0");
+
+        SQLiteDatabase db = getReadableDatabase();
+        try {
+            // compiling fails if a column does not exist
+            db.compileStatement(sql.toString()).close();
+        } finally {
+            closeIfNotAcquired(db);
+        }
+    }
+
+    /**
+     * Updates the {@link Database} using its ID as selection.
+     * 
+     * @param t
+     *            a non-null instance of {@link DatabaseEntry}
+     * @return number of updated rows
+     */
+    public final int update(T t) {
+        return performUpdate(getWritableDatabase(), t);
+    }
+
+    /**
+     * Updates the {@link Database} using the given selection.
+     * 
+     * @param t
+     *            a non-null instance of {@link DatabaseEntry}
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     * @return number of updated rows
+     */
+    public final int update(T t, String whereClause, String... whereArgs) {
+        return performUpdate(getReadableDatabase(), t, whereClause, whereArgs);
+    }
+
+    /**
+     * Updates a collection of entries by ID in a single transaction, with one
+     * compiled statement per set of columns written. Null entries are ignored.
+     * 
+     * @param items
+     *            usually a {@link Collection} that contains the entries
+     * @return number of updated rows
+     */
+    public final int updateBunch(Iterable<? extends T> items) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        LongArray ids = items instanceof Collection ? new LongArray(((Collection<?>)items).size()) : new LongArray();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = (stats != null) && db.inTransaction();
+        db.beginTransaction();
+        int updated = 0;
+        try {
+            for (T t : items) {
+                if (t == null) {
+                    continue;
+                }
+                ids.add(t.getId());
+                if (updateById(db, t.toContentValues(mTable), t.getId()) > 0) {
+                    updated++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            onEntitiesChanged(ids.toArray());
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.UPDATE_BUNCH, start, updated, nested);
+        }
+        if (updated > 0) {
+            notifyChange(DatabaseChange.UPDATE, ids.toArray());
+        }
+        return updated;
+    }
+
+    /**
+     * @see #delete(long)
+     */
+    public final int delete(T t) {
+        return delete(t.getId());
+    }
+
+    /**
+     * Deletes the entry associated with the given ID.
+     * 
+     * @param id
+     *            id of the entry
+     * @return number of rows deleted
+     */
+    public final int delete(long id) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        int deleted;
+        try {
+            deleted = deleteById(db, id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            onEntityChanged(id);
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.DELETE, start, deleted, nested);
+        }
+        onSizeChanged(nested, -deleted);
+        if (deleted > 0) {
+            notifyChange(DatabaseChange.DELETE, id);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the entry by the given selection.
+     * 
+     * @see SQLiteDatabase#delete(String, String, String[])
+     * @return number of rows deleted
+     */
+    public final int delete(String selection, String... selectionArgs) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        int deleted;
+        try {
+            deleted = db.delete(mName, selection, selectionArgs);
+        } finally {
+            closeIfNotAcquired(db);
+            invalidateEntities();
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.DELETE, start, deleted, nested);
+        }
+        onSizeChanged(nested, -deleted);
+        if (deleted > 0) {
+            notifyChange(DatabaseChange.DELETE, null);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes a collection of entries by ID in a single transaction. Null
+     * entries are ignored.
+     * 
+     * @param items
+     *            usually a {@link Collection} that contains the entries
+     * @return number of rows deleted
+     * @see #deleteIds(long[])
+     */
+    public final int deleteBunch(Iterable<? extends T> items) {
+        LongArray ids = items instanceof Collection ? new LongArray(((Collection<?>)items).size()) : new LongArray();
+        for (T t : items) {
+            if (t != null) {
+                ids.add(t.getId());
+            }
+        }
+        return deleteIds(ids.toArray());
+    }
+
+    /**
+     * Deletes the entries with the given IDs in a single transaction, with
+     * {@code DELETE ... WHERE _id IN (?, ...)} statements of up to 999 IDs,
+     * the default limit of variables of SQLite.
+     * 
+     * @return number of rows deleted
+     */
+    public final int deleteIds(long[] ids) {
+        if (ids.length == 0) {
+            return 0;
+        }
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        int deleted = 0;
+        try {
+            SQLiteStatement statement = null;
+            try {
+                for (int offset = 0; offset < ids.length; offset += MAX_VARIABLES) {
+                    int count = Math.min(MAX_VARIABLES, ids.length - offset);
+                    if (!Utils.hasHoneyComb()) {
+                        String[] args = new String[count];
+                        for (int i = 0; i < count; i++) {
+                            args[i] = String.valueOf(ids[offset + i]);
+                        }
+                        deleted += db.delete(mName, selectIds(count), args);
+                        continue;
+                    }
+                    if ((statement == null) || (count < MAX_VARIABLES)) {
+                        if (statement != null) {
+                            statement.close();
+                        }
+                        statement = db.compileStatement("DELETE FROM " + mName + " WHERE " + selectIds(count));
+                    }
+                    for (int i = 0; i < count; i++) {
+                        statement.bindLong(i + 1, ids[offset + i]);
+                    }
+                    deleted += statement.executeUpdateDelete();
+                }
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            onEntitiesChanged(ids);
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.DELETE_IDS, start, deleted, nested);
+        }
+        onSizeChanged(nested, -deleted);
+        if (deleted > 0) {
+            notifyChange(DatabaseChange.DELETE, ids);
+        }
+        return deleted;
+    }
+
+    /**
+     * @return {@code _id IN (?, ...)} with {@code count} arguments
+     */
+    private static String selectIds(int count) {
+        StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Used by all the query operations.
+     * 
+     * @see SQLiteDatabase#query(String, String[], String, String[], String,
+     *      String, String)
+     */
+    public final void setOrderBy(String orderBy) {
+        mOrderBy = orderBy;
+        mKeyset = null;
+    }
+
+    /**
+     * Query all the rows in the database, ordered by {@link #getOrderBy()}.
+     * 
+     * @see SQLiteDatabase#query(String, String[], String, String[], String,
+     *      String, String)
+     */
+    public final Cursor query() {
+        return query(null, (String[])null);
+    }
+
+    /**
+     * Query the database with the given selections.
+     * 
+     * @see SQLiteDatabase#query(String, String[], String, String[], String,
+     *      String, String)
+     */
+    public final Cursor query(String selection, String... selectionArgs) {
+        return query(null, selection, selectionArgs);
+    }
+
+    /**
+     * Query the database with the given selections, reading only the columns
+     * of the projection.
+     * 
+     * @param projection
+     *            the columns to read, null for all the columns
+     * @see #getProjection(String)
+     * @see SQLiteDatabase#query(String, String[], String, String[], String,
+     *      String, String)
+     */
+    public final Cursor query(String[] projection, String selection, String... selectionArgs) {
+        return query(projection, selection, selectionArgs, 0, null);
+    }
+
+    /**
+     * Query the database with the given selections, reading only the columns
+     * of the projection. The query is aborted with an
+     * {@link OperationCanceledException} if the signal is cancelled before the
+     * rows are read; call {@link Cursor#getCount()} to read them while the
+     * signal applies.
+     * 
+     * @param signal
+     *            ignored prior to API 16, may be null
+     * @see SQLiteDatabase#query(boolean, String, String[], String, String[],
+     *      String, String, String, String, CancellationSignal)
+     */
+    public final Cursor query(String[] projection, String selection, String[] selectionArgs, CancellationSignal signal) {
+        return query(projection, selection, selectionArgs, 0, signal);
+    }
+
+    /**
+     * Query at most {@code limit} rows, in the order of {@link #getOrderBy()}.
+     * SQLite stops reading once the limit is reached.
+     * 
+     * @param limit
+     *            maximum number of rows, 0 for all the rows
+     * @param signal
+     *            ignored prior to API 16, may be null
+     * @see #query(String[], String, String[], CancellationSignal)
+     */
+    public final Cursor query(String[] projection, String selection, String[] selectionArgs, int limit, CancellationSignal signal) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0: " + limit);
+        }
+        QueryCache cache = mQueryCache;
+        if (cache == null) {
+            return performQuery(projection, selection, selectionArgs, limit, signal);
+        }
+
+        QueryCache.Key key = new QueryCache.Key(projection, selection, selectionArgs, mOrderBy, limit);
+        CursorSnapshot snapshot = cache.get(key);
+        if (snapshot == null) {
+            int version = cache.getVersion();
+            Cursor cursor = performQuery(projection, selection, selectionArgs, limit, signal);
+            try {
+                snapshot = CursorSnapshot.of(cursor);
+            } finally {
+                cursor.close();
+            }
+            cache.put(key, snapshot, version);
+        }
+        return snapshot.toCursor();
+    }
+
+    private final Cursor performQuery(String[] projection, String selection, String[] selectionArgs, int limit, CancellationSignal signal) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        String limitClause = limit == 0 ? null : String.valueOf(limit);
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor;
+        if ((signal == null) || !Utils.hasJellyBean()) {
+            cursor = db.query(false, mName, projection, selection, selectionArgs, null, null, mOrderBy, limitClause);
+        } else {
+            cursor = db.query(false, mName, projection, selection, selectionArgs, null, null, mOrderBy, limitClause, signal);
+        }
+        if (stats != null) {
+            try {
+                // the rows are only read when counted
+                onRead(stats, DatabaseStats.QUERY, start, cursor.getCount(), db, buildSelect(projection, selection, mOrderBy, limitClause), selectionArgs);
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Queries the table and records the read in the {@link DatabaseStats}, if
+     * any, under {@code operation}.
+     */
+    private final Cursor timedQuery(SQLiteDatabase db, String operation, String[] projection, String selection, String[] selectionArgs, String orderBy) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        Cursor cursor = db.query(mName, projection, selection, selectionArgs, null, null, orderBy);
+        if (stats != null) {
+            try {
+                onRead(stats, operation, start, cursor.getCount(), db, buildSelect(projection, selection, orderBy, null), selectionArgs);
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * @see #queryPage(PageToken, int, String, String...)
+     */
+    public final Page queryPage(PageToken after, int limit) {
+        return queryPage(after, limit, null, (String[])null);
+    }
+
+    /**
+     * Query a page of at most {@code limit} rows with the given selections,
+     * ordered by {@link #getOrderBy()} then {@link BaseColumns#_ID}.
+     * </p>
+     * Pages use keyset pagination: the next page starts after the sort keys of
+     * the last row of the previous page, instead of skipping rows with
+     * {@code OFFSET}, so fetching any page costs the same. The order must be a
+     * list of columns, each optionally followed by {@code ASC} or
+     * {@code DESC}. The columns must be in the result and should not contain
+     * {@code NULL}s.
+     * 
+     * @param after
+     *            the token returned by the previous page, or null for the first
+     *            page
+     * @param limit
+     *            maximum number of rows in the page
+     * @throws IllegalArgumentException
+     *             if the order cannot be paginated, or if the token was
+     *             created with a different order
+     */
+    public final Page queryPage(PageToken after, int limit, String selection, String... selectionArgs) {
+        return queryPage(after, 0, limit, selection, selectionArgs);
+    }
+
+    /**
+     * Query a page of at most {@code limit} rows after the token, skipping
+     * {@code offset} rows first, which SQLite steps through.
+     * 
+     * @see #queryPage(PageToken, int, String, String...)
+     */
+    final Page queryPage(PageToken after, int offset, int limit, String selection, String... selectionArgs) {
+        return queryPage(getKeyset(), after, offset, limit, selection, selectionArgs);
+    }
+
+    /**
+     * Query a page of at most {@code limit} rows ordered by
+     * {@link BaseColumns#_ID} only, whatever the order set by
+     * {@link #setOrderBy(String)} is, so every row is read exactly once.
+     * 
+     * @see #queryPage(PageToken, int, String, String...)
+     */
+    final Page queryPageById(PageToken after, int limit) {
+        return queryPage(ID_KEYSET, after, 0, limit, null);
+    }
+
+    private Page queryPage(Keyset keyset, PageToken after, int offset, int limit, String selection, String... selectionArgs) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit <= 0: " + limit);
+        }
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        if (after != null) {
+            if (!keyset.getOrderBy().equals(after.getOrderBy())) {
+                throw new IllegalArgumentException(after + " does not match the order " + keyset.getOrderBy());
+            }
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            keyset.appendAfter(where, args, after.getKeys());
+        }
+
+        SQLiteDatabase db = getReadableDatabase();
+        String[] whereArgs = args.toArray(new String[args.size()]);
+        String limitClause = offset == 0 ? String.valueOf(limit) : offset + ", " + limit;
+        Page page = toPage(db.query(mName, null, where.length() == 0 ? null : where.toString(), whereArgs, null, null, keyset.getOrderBy(), limitClause), keyset, limit);
+        if (stats != null) {
+            onRead(stats, DatabaseStats.QUERY_PAGE, start, page.getCursor().getCount(), db, buildSelect(null, where.length() == 0 ? null : where.toString(), keyset.getOrderBy(), limitClause), whereArgs);
+        }
+        return page;
+    }
+
+    private static Page toPage(Cursor cursor, Keyset keyset, int limit) {
+        PageToken next = null;
+        try {
+            if (cursor.getCount() >= limit) {
+                next = new PageToken(keyset.getOrderBy(), keyset.readLastKeys(cursor));
+            }
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        return new Page(cursor, next);
+    }
+
+    /**
+     * Query the rows matching the selection through a {@link WindowedCursor},
+     * which reads them in windows of {@code windowSize} rows, ordered like
+     * {@link #queryPage(PageToken, int, String, String...)}. The rows are
+     * counted by reading their sort keys, and the first window is read before
+     * returning.
+     * 
+     * @param windowSize
+     *            the number of rows read at once
+     * @param maxWindows
+     *            the number of windows kept in memory, at least 3
+     * @see WindowedCursor
+     */
+    public final WindowedCursor queryWindowed(int windowSize, int maxWindows, String selection, String... selectionArgs) {
+        return new WindowedCursor(this, windowSize, maxWindows, 0, selection, selectionArgs);
+    }
+
+    /**
+     * Reads only the sort keys of the rows matching the selection, ordered
+     * like {@link #queryPage(PageToken, int, String, String...)}, and keeps
+     * the token of every {@code stride}-th row. The first token, starting the
+     * result, is null.
+     * 
+     * @param anchors
+     *            receives the token starting the rows at positions 0,
+     *            {@code stride}, {@code 2 * stride}...
+     * @return the number of rows
+     */
+    final int readAnchors(int stride, List<PageToken> anchors, String selection, String... selectionArgs) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        Keyset keyset = getKeyset();
+        String[] columns = keyset.getColumns();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor c = db.query(mName, columns, selection, selectionArgs, null, null, keyset.getOrderBy());
+        try {
+            int count = c.getCount();
+            anchors.add(null);
+            for (int position = stride - 1; (position < count - 1) && c.moveToPosition(position); position += stride) {
+                anchors.add(new PageToken(keyset.getOrderBy(), keyset.readKeys(c)));
+            }
+            if (stats != null) {
+                onRead(stats, DatabaseStats.QUERY, start, count, db, buildSelect(columns, selection, keyset.getOrderBy(), null), selectionArgs);
+            }
+            return count;
+        } finally {
+            c.close();
+            closeIfNotAcquired(db);
+        }
+    }
+
+    private Keyset getKeyset() {
+        Keyset keyset = mKeyset;
+        if (keyset == null) {
+            keyset = new Keyset(mOrderBy);
+            mKeyset = keyset;
+        }
+        return keyset;
+    }
+
+    /**
+     * Query all the rows in the database, ordered by {@link #getOrderBy()},
+     * and map them with the {@link RowMapper}.
+     * 
+     * @see #queryList(RowMapper, String, String...)
+     */
+    public final <R> List<R> queryList(RowMapper<R> mapper) {
+        return queryList(mapper, null, (String[])null);
+    }
+
+    /**
+     * Query the database with the given selections and map every row with the
+     * {@link RowMapper}. The {@code Cursor} is closed before returning.
+     * 
+     * @return a {@code List} of the mapped rows, in the order of
+     *         {@link #getOrderBy()}
+     */
+    public final <R> List<R> queryList(RowMapper<R> mapper, String selection, String... selectionArgs) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = timedQuery(db, DatabaseStats.QUERY, null, selection, selectionArgs, mOrderBy);
+        try {
+            List<R> list = new ArrayList<R>(cursor.getCount());
+            int[] columns = mapper.getColumnIndexes(cursor);
+            while (cursor.moveToNext()) {
+                list.add(mapper.mapRow(cursor, columns));
+            }
+            return list;
+        } finally {
+            cursor.close();
+            closeIfNotAcquired(db);
+        }
+    }
+
+    /**
+     * Query the entry with the given ID and map it with the {@link RowMapper}.
+     * 
+     * @return the mapped row, or null if no entry has the given ID
+     */
+    public final <R> R queryEntry(RowMapper<R> mapper, long id) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = timedQuery(db, DatabaseStats.QUERY, null, SELECT_ID, new String[] {String.valueOf(id)}, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return mapper.mapRow(cursor, mapper.getColumnIndexes(cursor));
+        } finally {
+            cursor.close();
+            closeIfNotAcquired(db);
+        }
+    }
+
+    /**
+     * Query the database with the given selections and map the rows lazily
+     * while iterating. The {@code Cursor} is closed after the last row; call
+     * {@link CursorIterator#close()} if the iteration may stop early.
+     * 
+     * @return a {@link CursorIterator} of the mapped rows, in the order of
+     *         {@link #getOrderBy()}
+     */
+    public final <R> CursorIterator<R> queryIterator(RowMapper<R> mapper, String selection, String... selectionArgs) {
+        return new CursorIterator<R>(query(selection, selectionArgs), mapper);
+    }
+
+    /**
+     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     */
+    public final long insert(T t) {
+        return performInsert(getWritableDatabase(), t);
+    }
+
+    /**
+     * First attempt to update the database by ID, then inserts the entry if it
+     * fails to update (a new entry).
+     * </p>
+     * Performed with a single statement when native upsert is available, see
+     * {@link #setNativeUpsertEnabled(boolean)}.
+     * 
+     * @return the ID of the inserted entry, or -1 if the entry was updated
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     */
+    public final long insertOrUpdate(T t) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+
+        long id;
+        try {
+            ContentValues values = t.toContentValues(mTable);
+            long lastRowId = canUpsert(db, values, t.getId()) ? mStatements.lastInsertRowId(db) : -1;
+            id = upsert(db, values, t.getId(), lastRowId);
+            if (id == 0) {
+                id = -1;// updated
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            onEntityChanged(t.getId());
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.INSERT_OR_UPDATE, start, 1, nested);
+        }
+        onSizeChanged(nested, id == -1 ? 0 : 1);
+        if (id == -1) {
+            notifyChange(DatabaseChange.UPDATE, t.getId());
+        } else {
+            notifyChange(DatabaseChange.INSERT, id);
+        }
+        return id;
+    }
+
+    /**
+     * First attempt to update the database by the given selection, then inserts
+     * the entry if it fails to update (a new entry).
+     * 
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     */
+    public final long insertOrUpdate(T t, String whereClause, String... whereArgs) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+
+        long id = -1;
+        int updated;
+        try {
+            ContentValues values = t.toContentValues(mTable);
+            updated = db.update(mName, values, whereClause, whereArgs);
+            if (updated <= 0) {
+                id = db.insert(mName, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            invalidateEntities();
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.INSERT_OR_UPDATE, start, id == -1 ? Math.max(updated, 0) : 1, nested);
+        }
+        onSizeChanged(nested, id == -1 ? 0 : 1);
+        if (id == -1) {
+            notifyChange(DatabaseChange.UPDATE, null);
+        } else {
+            notifyChange(DatabaseChange.INSERT, id);
+        }
+        return id;
+    }
+
+    /**
+     * Insert a collection of entries to the database. A null entry is ignored
+     * and is represented by a null element in the returned {@code List<Long>}.
+     * A inserted entry is represented by an ID.
+     * 
+     * @param items
+     *            usually a {@link Collection} that contains the entries
+     * @return a {@code List<Long>} that contains all the IDs in the same order
+     *         of the {@code Iterator}.
+     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     */
+    public final List<Long> insertBunch(Iterable<? extends T> items) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        List<Long> ids = new ArrayList<Long>();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        int inserted = 0;
+        try {
+            for (T t : items) {
+                if (t == null) {
+                    ids.add(null);
+                } else {
+                    long id = insertValues(db, t.toContentValues(mTable));
+                    if (id != -1) {
+                        inserted++;
+                    }
+                    ids.add(Long.valueOf(id));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.INSERT_BUNCH, start, inserted, nested);
+        }
+        onSizeChanged(nested, inserted);
+        if (!mListeners.isEmpty()) {
+            notifyChange(DatabaseChange.INSERT, toArray(ids));
+        }
+        return ids;
+    }
+
+    /**
+     * @see #insertBunch(Iterable, DatabaseEntryBinder, int)
+     */
+    public final long[] insertBunch(Iterable<? extends T> items, DatabaseEntryBinder<? super T> binder) {
+        return insertBunch(items, binder, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Insert a collection of entries to the database with a single compiled
+     * statement bound by the {@link DatabaseEntryBinder}. No
+     * {@code ContentValues} is created and no ID is boxed.
+     * </p>
+     * The entries are committed every {@code chunkSize} rows, so a failure
+     * only rolls back the current chunk. Chunks are joined if this method is
+     * called inside another transaction.
+     * </p>
+     * A null entry is ignored and is represented by -1 in the returned array,
+     * so is an entry that fails to be inserted.
+     * 
+     * @param items
+     *            usually a {@link Collection} that contains the entries
+     * @param binder
+     *            binds the columns of each entry
+     * @param chunkSize
+     *            number of rows inserted per transaction
+     * @return a {@code long[]} that contains all the IDs in the same order of
+     *         the {@code Iterator}.
+     */
+    public final long[] insertBunch(Iterable<? extends T> items, DatabaseEntryBinder<? super T> binder, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+        }
+        LongArray ids = items instanceof Collection ? new LongArray(((Collection<?>)items).size()) : new LongArray();
+        Iterator<? extends T> iterator = items.iterator();
+        DatabaseStats stats = mStats;
+
+        SQLiteDatabase db = getWritableDatabase();
+        try {
+            boolean nested = db.inTransaction();
+            while (iterator.hasNext()) {
+                long start = stats == null ? 0 : System.nanoTime();
+                int first = ids.size();
+                db.beginTransaction();
+                try {
+                    mStatements.executeInsertAll(db, mTable, binder, iterator, chunkSize, ids);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    invalidateQueries();
+                }
+                int inserted = 0;
+                for (int i = first, size = ids.size(); i < size; i++) {
+                    if (ids.get(i) != -1) {
+                        inserted++;
+                    }
+                }
+                if (stats != null) {
+                    stats.recordWrite(DatabaseStats.INSERT_BUNCH, start, inserted, nested);
+                }
+                onSizeChanged(nested, inserted);
+            }
+        } finally {
+            closeIfNotAcquired(db);
+        }
+        long[] result = ids.toArray();
+        if (!mListeners.isEmpty()) {
+            notifyChange(DatabaseChange.INSERT, result);
+        }
+        return result;
+    }
+
+    /**
+     * Insert a collection of entries to the database. Each entry is updated
+     * by ID first, if it fails, an insertion is performed.
+     * </p>
+     * A null entry is not inserted/updated and is represented by a null element
+     * in the returned {@code List<Long>}. An updated entry is represented by a
+     * zero. An inserted entry is represented by an ID.
+     * </p>
+     * Each entry is written with a single statement when native upsert is
+     * available, see {@link #setNativeUpsertEnabled(boolean)}.
+     * 
+     * @param items
+     *            usually a {@link Collection} that contains the entries
+     * @return a {@code List<Long>} that contains all the IDs in the same order
+     *         of the {@code Iterator}.
+     * @see SQLiteDatabase#insert(String, String, ContentValues)
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     */
+    public final List<Long> insertOrUpdateBunch(Iterable<? extends T> items) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        List<Long> ids = new ArrayList<Long>();
+        SQLiteDatabase db = getWritableDatabase();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        int inserted = 0;
+        int written = 0;
+        LongArray updatedIds = mListeners.isEmpty() ? null : new LongArray();
+        LongArray insertedIds = updatedIds == null ? null : new LongArray();
+        try {
+            long lastRowId = -1;
+            boolean lastRowIdKnown = false;
+            for (T t : items) {
+                if (t == null) {
+                    ids.add(null);
+                    continue;
+                }
+
+                ContentValues values = t.toContentValues(mTable);
+                if (!lastRowIdKnown && canUpsert(db, values, t.getId())) {
+                    lastRowId = mStatements.lastInsertRowId(db);
+                    lastRowIdKnown = true;
+                }
+                long id = upsert(db, values, t.getId(), lastRowId);
+                if (id > 0) {
+                    lastRowId = id;
+                    inserted++;
+                }
+                if (id != -1) {
+                    written++;
+                }
+                if (updatedIds != null) {
+                    if (id > 0) {
+                        insertedIds.add(id);
+                    } else if (id == 0) {
+                        updatedIds.add(t.getId());
+                    }
+                }
+                ids.add(Long.valueOf(id));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            invalidateEntities();
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.INSERT_OR_UPDATE_BUNCH, start, written, nested);
+        }
+        onSizeChanged(nested, inserted);
+        if (updatedIds != null) {
+            notifyChange(DatabaseChange.UPDATE, updatedIds.toArray());
+            notifyChange(DatabaseChange.INSERT, insertedIds.toArray());
+        }
+        return ids;
+    }
+
+    private final long performInsert(SQLiteDatabase db, T t) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        boolean nested = db.inTransaction();
+        db.beginTransaction();
+        long id;
+        try {
+            id = insertValues(db, t.toContentValues(mTable));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.INSERT, start, id == -1 ? 0 : 1, nested);
+        }
+        onSizeChanged(nested, id == -1 ? 0 : 1);
+        if (id != -1) {
+            notifyChange(DatabaseChange.INSERT, id);
+        }
+        return id;
+    }
+
+    private final int performUpdate(SQLiteDatabase db, T t) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        boolean nested = (stats != null) && db.inTransaction();
+        db.beginTransaction();
+        int updated;
+        try {
+            updated = updateById(db, t.toContentValues(mTable), t.getId());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            closeIfNotAcquired(db);
+            onEntityChanged(t.getId());
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.UPDATE, start, updated, nested);
+        }
+        if (updated > 0) {
+            notifyChange(DatabaseChange.UPDATE, t.getId());
+        }
+        return updated;
+    }
+
+    private final int performUpdate(SQLiteDatabase db, T t, String whereClause, String... whereArgs) {
+        DatabaseStats stats = mStats;
+        long start = stats == null ? 0 : System.nanoTime();
+        boolean nested = (stats != null) && db.inTransaction();
         db.beginTransaction();
         int updated;
         try {
@@ -393,14 +1983,431 @@ public abstract class Database<T extends DatabaseEntry> extends SQLiteOpenHelper
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
-            if (autoClose) {
+            closeIfNotAcquired(db);
+            invalidateEntities();
+            invalidateQueries();
+        }
+        if (stats != null) {
+            stats.recordWrite(DatabaseStats.UPDATE, start, updated, nested);
+        }
+        if (updated > 0) {
+            notifyChange(DatabaseChange.UPDATE, null);
+        }
+        return updated;
+    }
+
+    /**
+     * Inserts with a cached statement. Must be called inside a transaction.
+     * 
+     * @return the row ID, or -1 if an error occurred, as per
+     *         {@link SQLiteDatabase#insert(String, String, ContentValues)}
+     */
+    private final long insertValues(SQLiteDatabase db, ContentValues values) {
+        if (values.size() == 0) {
+            return db.insert(mName, null, values);
+        }
+        try {
+            return mStatements.executeInsert(db, values);
+        } catch (SQLException e) {
+            Logs.e(TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Updates with a cached statement. Must be called inside a transaction.
+     */
+    private final int updateById(SQLiteDatabase db, ContentValues values, long id) {
+        if (!Utils.hasHoneyComb() || (values.size() == 0)) {
+            return db.update(mName, values, SELECT_ID, new String[] {String.valueOf(id)});
+        }
+        return mStatements.executeUpdateById(db, values, id);
+    }
+
+    /**
+     * Deletes with a cached statement. Must be called inside a transaction.
+     */
+    private final int deleteById(SQLiteDatabase db, long id) {
+        if (!Utils.hasHoneyComb()) {
+            return db.delete(mName, SELECT_ID, new String[] {String.valueOf(id)});
+        }
+        return mStatements.executeDeleteById(db, id);
+    }
+
+    /**
+     * Updates by ID, or inserts if no row was updated. Must be called inside a
+     * transaction.
+     * </p>
+     * The native upsert cannot tell an update from an insert by itself:
+     * {@code last_insert_rowid()} is only changed by an insert. The caller
+     * tracks its value in {@code lastRowId}, and updates it with any positive
+     * ID returned. If the value equals the ID of the entry, the outcome would
+     * be ambiguous, and the update then insert path is taken instead.
+     * 
+     * @param lastRowId
+     *            the current {@code last_insert_rowid()} of the connection, only
+     *            used if {@link #canUpsert(SQLiteDatabase, ContentValues, long)}
+     * @return 0 if updated, the row ID if inserted, -1 if an error occurred
+     */
+    private final long upsert(SQLiteDatabase db, ContentValues values, long id, long lastRowId) {
+        if (canUpsert(db, values, id) && (id != lastRowId)) {
+            long rowId;
+            try {
+                rowId = mStatements.executeUpsert(db, values);
+            } catch (SQLException e) {
+                Logs.e(TAG, "Error upserting " + values, e);
+                return -1;
+            }
+            return rowId == lastRowId ? 0 : rowId;
+        }
+
+        int updated = updateById(db, values, id);
+        if (updated > 0) {
+            return 0;
+        }
+        return insertValues(db, values);
+    }
+
+    /**
+     * @return true if the values can be written by a native upsert, which
+     *         requires them to carry the same ID as the entry
+     */
+    private final boolean canUpsert(SQLiteDatabase db, ContentValues values, long id) {
+        if (!mNativeUpsertEnabled || (values.size() < 2)) {
+            return false;
+        }
+        Long valuesId = values.getAsLong(BaseColumns._ID);
+        return (valuesId != null) && (valuesId.longValue() == id) && isNativeUpsertSupported(db);
+    }
+
+    private final boolean isNativeUpsertSupported(SQLiteDatabase db) {
+        Boolean supported = mNativeUpsertSupported;
+        if (supported == null) {
+            String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+            supported = Boolean.valueOf(isVersionAtLeast(version, NATIVE_UPSERT_VERSION));
+            mNativeUpsertSupported = supported;
+        }
+        return supported.booleanValue();
+    }
+
+    /**
+     * @param version
+     *            a dotted version, such as "3.24.0"
+     */
+    private static boolean isVersionAtLeast(String version, int[] required) {
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < required.length; i++) {
+            int part;
+            try {
+                part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (part != required[i]) {
+                return part > required[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keyset pagination over {@link BaseColumns#_ID}, see
+     * {@link Database#iterateIds(int)}.
+     */
+    private final class IdIterator implements LongIterator {
+        private final long[] mPage;
+        private final String mSql;
+        private final String[] mArgs = new String[1];
+        private int mColumn = -1;
+        private int mCount;
+        private int mPosition;
+        private boolean mStarted;
+        private boolean mLastPage;
+
+        IdIterator(int pageSize) {
+            mPage = new long[pageSize];
+            mSql = "SELECT " + BaseColumns._ID + " FROM " + mName + " WHERE " + BaseColumns._ID + " > ? ORDER BY " + BaseColumns._ID + " LIMIT " + pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mPosition < mCount) {
+                return true;
+            }
+            if (mStarted && mLastPage) {
+                return false;
+            }
+            loadPage();
+            return mPosition < mCount;
+        }
+
+        @Override
+        public long next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return mPage[mPosition++];
+        }
+
+        private void loadPage() {
+            // IDs can be negative
+            mArgs[0] = String.valueOf(mStarted ? mPage[mCount - 1] : Long.MIN_VALUE);
+            mStarted = true;
+
+            DatabaseStats stats = mStats;
+            long start = stats == null ? 0 : System.nanoTime();
+            SQLiteDatabase db = getReadableDatabase();
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(mSql, mArgs);
+                if (stats != null) {
+                    onRead(stats, DatabaseStats.QUERY_IDS, start, cursor.getCount(), db, mSql, mArgs);
+                }
+                if (mColumn < 0) {
+                    mColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+                }
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    mPage[count++] = cursor.getLong(mColumn);
+                }
+                mCount = count;
+                mPosition = 0;
+                mLastPage = count < mPage.length;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                closeIfNotAcquired(db);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry from the entity cache and clears the query cache.
+     * Called once the write is over, whether it succeeded or not.
+     */
+    private final void onEntityChanged(long id) {
+        EntityCache<T> cache = mEntityCache;
+        if (cache != null) {
+            cache.remove(id);
+        }
+        invalidateQueries();
+    }
+
+    /**
+     * @see #onEntityChanged(long)
+     */
+    private final void onEntitiesChanged(long[] ids) {
+        EntityCache<T> cache = mEntityCache;
+        if (cache != null) {
+            for (long id : ids) {
+                cache.remove(id);
+            }
+        }
+        invalidateQueries();
+    }
+
+    /**
+     * Applies a committed change to the length kept in memory. A change joined
+     * with a transaction of the caller may still be rolled back, the length is
+     * dropped in that case.
+     * 
+     * @param nested
+     *            true if the write was performed inside a transaction of the
+     *            caller
+     * @param delta
+     *            number of entries inserted, or negative number of entries
+     *            deleted
+     */
+    private final void onSizeChanged(boolean nested, int delta) {
+        if (!mSizeCached || (delta == 0)) {
+            return;
+        }
+        synchronized (mSizeLock) {
+            mSizeVersion++;
+            if (nested || (mCachedSize < 0)) {
+                mCachedSize = -1;
+            } else {
+                mCachedSize += delta;
+            }
+        }
+    }
+
+    private final String buildSelect(String[] projection, String selection, String orderBy, String limit) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append('*');
+        } else {
+            appendProjection(sql, projection);
+        }
+        sql.append(" FROM ").append(mName);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        if (!TextUtils.isEmpty(orderBy)) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        if (!TextUtils.isEmpty(limit)) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Records a read, and logs it with its plan if it was slow.
+     */
+    private final void onRead(DatabaseStats stats, String operation, long start, int rows, SQLiteDatabase db, String sql, String[] args) {
+        long elapsed = stats.recordRead(operation, start, rows);
+        if (stats.isSlow(elapsed)) {
+            stats.logSlowQuery(db, sql, args, elapsed);
+        }
+    }
+
+    private static void appendProjection(StringBuilder sql, String[] projection) {
+        for (int i = 0; i < projection.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(projection[i]);
+        }
+    }
+
+    /**
+     * A query checked by {@link Database#findFullScans()}.
+     */
+    private static final class RegisteredQuery {
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+
+        RegisteredQuery(String[] projection, String selection, String[] selectionArgs) {
+            this.projection = projection == null ? null : projection.clone();
+            this.selection = selection;
+            this.selectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+        }
+    }
+
+    private final void notifyChange(int type, long id) {
+        if (!mListeners.isEmpty()) {
+            notifyChange(type, new long[] {id});
+        }
+    }
+
+    /**
+     * Publishes a successful write to the listeners. IDs of -1, which stand
+     * for failed or skipped rows, are left out, nothing is published if no ID
+     * remains.
+     * 
+     * @param ids
+     *            the IDs written, or null if any row may have changed
+     */
+    private final void notifyChange(int type, long[] ids) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        long[] sorted = null;
+        if (ids != null) {
+            int count = 0;
+            sorted = new long[ids.length];
+            for (long id : ids) {
+                if (id != -1) {
+                    sorted[count++] = id;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            if (count < sorted.length) {
+                sorted = Arrays.copyOf(sorted, count);
+            }
+            Arrays.sort(sorted);
+        }
+        DatabaseChange change = new DatabaseChange(mTable.getTableName(), type, sorted);
+        List<DatabaseChange> deferred = mDeferredChanges.get();
+        if (deferred != null) {
+            deferred.add(change);
+            return;
+        }
+        for (DatabaseListener listener : mListeners) {
+            listener.onDatabaseChanged(change);
+        }
+    }
+
+    /**
+     * Holds back the changes written by the current thread until
+     * {@link #endDeferredChanges()}, for writes grouped in a transaction that
+     * may still roll back.
+     */
+    final void deferChanges() {
+        mDeferredChanges.set(new ArrayList<DatabaseChange>());
+    }
+
+    /**
+     * Stops holding back the changes of the current thread.
+     * 
+     * @return the changes held back since {@link #deferChanges()}, to pass to
+     *         {@link #publishChanges(List)} if the transaction committed
+     */
+    final List<DatabaseChange> endDeferredChanges() {
+        List<DatabaseChange> changes = mDeferredChanges.get();
+        mDeferredChanges.remove();
+        return changes == null ? Collections.<DatabaseChange> emptyList() : changes;
+    }
+
+    /**
+     * Publishes the changes to the listeners, in order.
+     */
+    final void publishChanges(List<DatabaseChange> changes) {
+        for (DatabaseChange change : changes) {
+            for (DatabaseListener listener : mListeners) {
+                listener.onDatabaseChanged(change);
+            }
+        }
+    }
+
+    /**
+     * @return the IDs, with -1 for null elements
+     */
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            Long id = ids.get(i);
+            array[i] = id == null ? -1 : id.longValue();
+        }
+        return array;
+    }
+
+    /**
+     * Closes the connection unless it is held by {@link #acquire()}. The
+     * connection of a {@link SharedDatabase} is only closed when neither it
+     * nor any of its tables is acquired, see
+     * {@link SharedDatabase#isAcquired()}.
+     */
+    private final void closeIfNotAcquired(SQLiteDatabase db) {
+        if (mShared != null) {
+            mShared.closeIfNotAcquired();
+            return;
+        }
+        synchronized (this) {
+            if (mAcquireCount == 0) {
+                clearStatements();
                 db.close();
             }
         }
-        return updated;
     }
 
-    private final String[] wrapId(T t) {
-        return new String[] {String.valueOf(t.getId())};
+    /**
+     * Closes the compiled statements, called by the {@link SharedDatabase}
+     * before its connection is closed.
+     */
+    final void clearStatements() {
+        mStatements.clear();
+        synchronized (mCountLock) {
+            if (mCountStatement != null) {
+                mCountStatement.close();
+                mCountStatement = null;
+                mCountDatabase = null;
+            }
+        }
     }
 }
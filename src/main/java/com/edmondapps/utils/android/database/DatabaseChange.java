@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+import android.provider.BaseColumns;
+
+/**
+ * A write performed by a {@link Database}, published to its
+ * {@link DatabaseListener}s.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class DatabaseChange {
+    public static final int INSERT = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+
+    private final String mTableName;
+    private final int mType;
+    private final long[] mIds;
+
+    DatabaseChange(String tableName, int type, long[] ids) {
+        mTableName = tableName;
+        mType = type;
+        mIds = ids;
+    }
+
+    /**
+     * @return the name of the table written, as returned by
+     *         {@link DatabaseTable#getTableName()}
+     */
+    public String getTableName() {
+        return mTableName;
+    }
+
+    /**
+     * @return {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return the {@link BaseColumns#_ID}s of the rows written, in ascending
+     *         order, or null if the write was performed by selection and any
+     *         row may have changed
+     */
+    public long[] getIds() {
+        return mIds == null ? null : mIds.clone();
+    }
+
+    /**
+     * @param sortedIds
+     *            IDs in ascending order
+     * @return true if the change may affect one of the IDs
+     */
+    public boolean affects(long[] sortedIds) {
+        if (mIds == null) {
+            return true;
+        }
+        long[] smaller = mIds.length <= sortedIds.length ? mIds : sortedIds;
+        long[] larger = smaller == mIds ? sortedIds : mIds;
+        for (long id : smaller) {
+            if (Arrays.binarySearch(larger, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseChange [table=" + mTableName + ", type=" + mType + ", ids=" + (mIds == null ? "any" : String.valueOf(mIds.length)) + "]";
+    }
+}
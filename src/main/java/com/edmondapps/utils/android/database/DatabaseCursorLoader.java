@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.java.LongArray;
+
+/**
+ * A {@link SimpleCursorLoader} that reloads when its {@link Database} writes
+ * rows it shows.
+ * </p>
+ * After each load, the {@link BaseColumns#_ID}s of the {@code Cursor} are
+ * read. An update or a delete reloads only if it touches one of them, or if it
+ * was performed by selection. An insert reloads by default, see
+ * {@link #setReloadOnInsert(boolean)}. A {@code Cursor} without an
+ * {@link BaseColumns#_ID} column, or a {@link WindowedCursor} whose IDs are
+ * only read as its pages are, reloads on every change.
+ * </p>
+ * Changes are debounced: a burst of writes triggers a single reload once no
+ * write happened for {@link #setDebounce(long)} milliseconds.
+ * 
+ * @author Edmond
+ * 
+ */
+public abstract class DatabaseCursorLoader extends SimpleCursorLoader implements DatabaseListener {
+    private static final long DEFAULT_DEBOUNCE = 100;
+
+    private final Database<?> mDatabase;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile long mDebounce = DEFAULT_DEBOUNCE;
+    private volatile boolean mReloadOnInsert = true;
+    private volatile long[] mShownIds;
+    private boolean mRegistered;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            onContentChanged();
+        }
+    };
+
+    public DatabaseCursorLoader(Context context, Database<?> database) {
+        super(context);
+        mDatabase = database;
+    }
+
+    public final Database<?> getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * @param millis
+     *            quiet time after a change before reloading, 100 by default
+     */
+    public void setDebounce(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis < 0: " + millis);
+        }
+        mDebounce = millis;
+    }
+
+    /**
+     * @param reload
+     *            false if inserted rows never need to be shown, such as when
+     *            the selection only matches existing rows; true by default
+     */
+    public void setReloadOnInsert(boolean reload) {
+        mReloadOnInsert = reload;
+    }
+
+    /**
+     * Runs on a worker thread, see {@link SimpleCursorLoader#loadInBackground()}.
+     */
+    protected abstract Cursor onLoadCursor();
+
+    @Override
+    public final Cursor loadInBackground() {
+        Cursor cursor = onLoadCursor();
+        mShownIds = (cursor == null) || (cursor instanceof WindowedCursor) ? null : readIds(cursor);
+        return cursor;
+    }
+
+    /**
+     * Called on the writing thread.
+     */
+    @Override
+    public void onDatabaseChanged(DatabaseChange change) {
+        if (!isAffected(change)) {
+            return;
+        }
+        mHandler.removeCallbacks(mReload);
+        mHandler.postDelayed(mReload, mDebounce);
+    }
+
+    /**
+     * @return true if the change may alter the rows shown
+     */
+    protected boolean isAffected(DatabaseChange change) {
+        if (change.getType() == DatabaseChange.INSERT) {
+            return mReloadOnInsert;
+        }
+        long[] ids = mShownIds;
+        return (ids == null) || change.affects(ids);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mRegistered) {
+            mDatabase.registerListener(this);
+            mRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        if (mRegistered) {
+            mDatabase.unregisterListener(this);
+            mRegistered = false;
+        }
+        mHandler.removeCallbacks(mReload);
+        mShownIds = null;
+    }
+
+    /**
+     * @return the sorted IDs of the rows, or null if there is no ID column
+     */
+    private static long[] readIds(Cursor cursor) {
+        int column = cursor.getColumnIndex(BaseColumns._ID);
+        if (column < 0) {
+            return null;
+        }
+        LongArray ids = new LongArray(cursor.getCount());
+        int position = cursor.getPosition();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(column));
+        }
+        cursor.moveToPosition(position);
+        long[] array = ids.toArray();
+        Arrays.sort(array);
+        return array;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * A companion of {@link DatabaseEntry} that writes the columns of an entry
+ * directly into a compiled {@link SQLiteStatement}, instead of creating a
+ * {@code ContentValues} for every row.
+ * </br>
+ * Used by {@link Database#insertBunch(Iterable, DatabaseEntryBinder, int)}.
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            type of DatabaseEntry
+ */
+public interface DatabaseEntryBinder<T extends DatabaseEntry> {
+    /**
+     * The returned array must be the same for every call with the same
+     * {@link DatabaseTable}, it is used to compile and cache the statement.
+     * 
+     * @return the columns bound by {@link #bind(DatabaseEntry, SQLiteProgram)}
+     *         , in order
+     */
+    String[] getColumns(DatabaseTable table);
+
+    /**
+     * Binds the values of the entry, the first column returned by
+     * {@link #getColumns(DatabaseTable)} being at index 1. The previous
+     * bindings have been cleared.
+     * 
+     * @param t
+     *            a non-null instance of {@link DatabaseEntry}
+     * @param program
+     *            the statement to bind with
+     */
+    void bind(T t, SQLiteProgram program);
+}
@@ -16,31 +16,308 @@
 package com.edmondapps.utils.android.database;
 
 import java.io.Closeable;
-import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.text.TextUtils;
 import android.widget.Filter;
 
+import com.edmondapps.utils.android.Logs;
+import com.edmondapps.utils.android.Utils;
+
+/**
+ * A {@code Filter} selecting the rows of a {@link Database} with a column
+ * starting with the constraint.
+ * </p>
+ * Only the latest result is published, the {@code Cursor} of a result
+ * superseded by a newer constraint is closed instead.
+ * {@link #filterAndCancel(CharSequence)} also aborts the query in progress on
+ * API 16 and above.
+ * </p>
+ * In incremental mode, see {@link #setIncrementalThreshold(int)}, a result
+ * small enough is kept in memory and a longer constraint is matched against it
+ * without querying the database.
+ * </p>
+ * In top-N mode, see {@link #setLimit(int)}, only the first rows are read
+ * and the total number of matches is counted on demand in a background
+ * thread, see {@link #getTotalCount()}.
+ * 
+ * @author Edmond
+ * 
+ */
 public abstract class DatabaseFilter extends Filter implements Closeable {
+    private static final String TAG = "DatabaseFilter";
+    private static final ExecutorService COUNTER = newCounter();
     private static final String WHAT = "?";
     private static final String OR = " OR ";
     private static final String LIKE = " LIKE ";
 
     private final Database<?> mDatabase;
     private final String[] mColumns;
+    private volatile String[] mProjection;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile CancellationSignal mSignal;
+    private volatile int mIncrementalThreshold;
+    private volatile int mLimit;
+    private String mQuerySelection;
+    private String[] mQueryArgs;
+    private boolean mQueried;
+    private volatile TotalCount mTotalCount;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile CursorSnapshot mSnapshot;
+    private String mSnapshotConstraint;
+    private int[] mSnapshotColumns;
+    private int mRefinedCount;
 
     protected DatabaseFilter(Database<?> database, String col, String... columns) {
         mDatabase = database;
-        mColumns = Arrays.copyOf(columns, columns.length + 1);
-        mColumns[columns.length - 1] = col;
+        mColumns = new String[columns.length + 1];
+        mColumns[0] = col;
+        System.arraycopy(columns, 0, mColumns, 1, columns.length);
+    }
+
+    private static ExecutorService newCounter() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, TAG);
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Limits the columns read by the filtering queries, all the columns are
+     * read by default. The projection must contain the columns of the filter
+     * for the incremental mode to apply.
+     * 
+     * @param projection
+     *            the columns to read, null for all the columns
+     * @see Database#getProjection(String)
+     */
+    public void setProjection(String[] projection) {
+        mProjection = projection;
+        invalidateSnapshot();
+    }
+
+    public String[] getProjection() {
+        return mProjection;
+    }
+
+    /**
+     * Enables the incremental mode: a result of at most {@code maxRows} rows is
+     * copied to memory, and a constraint starting with the constraint of that
+     * result is matched with {@link #matches(String[], CharSequence)} against
+     * the copy instead of querying the database.
+     * </p>
+     * The copy does not see later changes to the database, call
+     * {@link #invalidateSnapshot()} when the data changes. Disabled by default.
+     * 
+     * @param maxRows
+     *            the largest result kept in memory, 0 to disable
+     */
+    public void setIncrementalThreshold(int maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows < 0: " + maxRows);
+        }
+        mIncrementalThreshold = maxRows;
+        invalidateSnapshot();
+    }
+
+    public int getIncrementalThreshold() {
+        return mIncrementalThreshold;
+    }
+
+    /**
+     * Enables the top-N mode: at most {@code maxRows} rows are read and
+     * published, which is all SQLite has to find before the results are shown.
+     * The total number of rows matching is only counted if
+     * {@link #getTotalCount()} is read. Disabled by default.
+     * 
+     * @param maxRows
+     *            the number of rows published, 0 for all the rows
+     */
+    public void setLimit(int maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows < 0: " + maxRows);
+        }
+        mLimit = maxRows;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * The total number of rows matching the last published constraint. When
+     * the result was cut by {@link #setLimit(int)}, the first call starts a
+     * {@code COUNT(*)} query in a background thread, and
+     * {@link #onTotalCount(CharSequence, int)} is called once it is done;
+     * otherwise the count is known already and the {@code Future} is done.
+     * </p>
+     * Do not wait for the {@code Future} in the UI thread. It is cancelled if
+     * not started when a newer result is published.
+     * 
+     * @return the total count, or null if nothing was published yet or if
+     *         {@link #onQuery(CharSequence)} did not use
+     *         {@link #query(String, String...)}
+     */
+    public Future<Integer> getTotalCount() {
+        TotalCount total = mTotalCount;
+        if (total != null) {
+            total.start();
+        }
+        return total;
+    }
+
+    /**
+     * Called in the UI thread when the count started by
+     * {@link #getTotalCount()} is done, unless a newer result was published
+     * in the meantime.
+     * 
+     * @param constraint
+     *            the constraint of the published result
+     * @param total
+     *            the number of rows matching the constraint
+     */
+    protected void onTotalCount(CharSequence constraint, int total) {
+    }
+
+    /**
+     * Drops the result kept in memory by the incremental mode, the next
+     * constraint queries the database.
+     */
+    public void invalidateSnapshot() {
+        mSnapshot = null;
+    }
+
+    /**
+     * Cancels the filtering in progress, then filters with the constraint.
+     * 
+     * @see #cancelInFlight()
+     */
+    public final void filterAndCancel(CharSequence constraint) {
+        filterAndCancel(constraint, null);
+    }
+
+    /**
+     * @see #filterAndCancel(CharSequence)
+     */
+    public final void filterAndCancel(CharSequence constraint, FilterListener listener) {
+        cancelInFlight();
+        filter(constraint, listener);
+    }
+
+    /**
+     * Discards the result of the filtering in progress, if any. Its query is
+     * aborted on API 16 and above and its {@code Cursor} is closed without
+     * being published.
+     */
+    public void cancelInFlight() {
+        mGeneration.incrementAndGet();
+        CancellationSignal signal = mSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    protected final Database<?> getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * @return the columns matched against the constraint
+     */
+    protected final String[] getColumns() {
+        return mColumns.clone();
     }
 
     @Override
     protected FilterResults performFiltering(CharSequence constraint) {
+        int generation = mGeneration.incrementAndGet();
         FilterResults results = new FilterResults();
+
+        int limit = mLimit;
+        TotalCount total = null;
+        Cursor cursor = refine(constraint, limit);
+        if (cursor != null) {
+            total = known(constraint, mRefinedCount);
+        } else {
+            CancellationSignal signal = Utils.hasJellyBean() ? new CancellationSignal() : null;
+            mSignal = signal;
+            mQueried = false;
+            try {
+                cursor = onQuery(constraint);
+                // the rows are read now, while the signal applies
+                cursor.getCount();
+            } catch (RuntimeException e) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                if (generation != mGeneration.get()) {
+                    // cancelled
+                    return results;
+                }
+                throw e;
+            } finally {
+                mSignal = null;
+            }
+            boolean complete = (limit == 0) || (cursor.getCount() < limit);
+            if (complete) {
+                total = known(constraint, cursor.getCount());
+                keepSnapshot(constraint, cursor);
+            } else {
+                mSnapshot = null;
+                if (mQueried) {
+                    total = count(constraint, mQuerySelection, mQueryArgs);
+                }
+            }
+        }
+
+        if (generation != mGeneration.get()) {
+            cursor.close();
+            return results;
+        }
+        results.count = cursor.getCount();
+        results.values = new Result(cursor, generation, total);
+        return results;
+    }
+
+    /**
+     * Called in a worker thread to query the rows matching the constraint,
+     * usually with {@link #query(String, String...)}.
+     * </p>
+     * By default, rows with a column starting with the constraint are selected
+     * with {@code LIKE}, which reads every row of the table. All the rows are
+     * returned for an empty constraint.
+     * 
+     * @return a {@code Cursor} to be published by
+     *         {@link #publishResults(CharSequence, int, Cursor)}
+     */
+    protected Cursor onQuery(CharSequence constraint) {
         if (TextUtils.isEmpty(constraint)) {
-            return wrapCursor(results, mDatabase.query());
+            return query(null, (String[])null);
         }
 
         int length = mColumns.length;
@@ -57,20 +334,136 @@ public abstract class DatabaseFilter extends Filter implements Closeable {
             selectionArgs[i] = filter;
         }
 
-        return wrapCursor(results, mDatabase.query(selection.toString(), selectionArgs));
+        return query(selection.toString(), selectionArgs);
+    }
+
+    /**
+     * Queries the {@link Database} with the projection of this filter. The
+     * query can be cancelled by {@link #cancelInFlight()} when called from
+     * {@link #onQuery(CharSequence)}.
+     */
+    protected final Cursor query(String selection, String... selectionArgs) {
+        mQuerySelection = selection;
+        mQueryArgs = selectionArgs;
+        mQueried = true;
+        return mDatabase.query(mProjection, selection, selectionArgs, mLimit, mSignal);
+    }
+
+    /**
+     * Called in a worker thread by the incremental mode to match a row kept in
+     * memory. Must select the same rows as {@link #onQuery(CharSequence)}.
+     * </p>
+     * By default, returns true if a value starts with the constraint, ignoring
+     * case.
+     * 
+     * @param values
+     *            the values of the columns of the filter, in the order of
+     *            {@link #getColumns()}
+     */
+    protected boolean matches(String[] values, CharSequence constraint) {
+        String prefix = constraint.toString();
+        for (String value : values) {
+            if ((value != null) && value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the rows of the snapshot matching the constraint, or null if the
+     *         database must be queried
+     */
+    private Cursor refine(CharSequence constraint, int limit) {
+        CursorSnapshot snapshot = mSnapshot;
+        if ((snapshot == null) || TextUtils.isEmpty(constraint) || !constraint.toString().startsWith(mSnapshotConstraint)) {
+            return null;
+        }
+
+        int[] columns = mSnapshotColumns;
+        String[] values = new String[columns.length];
+        int count = snapshot.getCount();
+        int[] rows = new int[count];
+        int matched = 0;
+        for (int row = 0; row < count; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                Object value = snapshot.getValue(row, columns[i]);
+                values[i] = value == null ? null : value.toString();
+            }
+            if (matches(values, constraint)) {
+                rows[matched++] = row;
+            }
+        }
+
+        // rows are indexes into the previous snapshot
+        CursorSnapshot refined = snapshot.subset(rows, matched);
+        Cursor cursor = (limit > 0) && (matched > limit) ? snapshot.subset(rows, limit).toCursor() : refined.toCursor();
+        mSnapshotConstraint = constraint.toString();
+        mSnapshot = refined;
+        mRefinedCount = matched;
+        return cursor;
+    }
+
+    private TotalCount known(CharSequence constraint, final int count) {
+        TotalCount total = new TotalCount(constraint, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return count;
+            }
+        });
+        total.run();
+        return total;
+    }
+
+    private TotalCount count(CharSequence constraint, final String selection, final String[] selectionArgs) {
+        return new TotalCount(constraint, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.count(selection, selectionArgs);
+            }
+        });
     }
 
-    private static FilterResults wrapCursor(FilterResults r, Cursor c) {
-        r.count = c.getCount();
-        r.values = c;
-        return r;
+    private void keepSnapshot(CharSequence constraint, Cursor cursor) {
+        int threshold = mIncrementalThreshold;
+        if ((threshold == 0) || TextUtils.isEmpty(constraint) || (cursor.getCount() > threshold)) {
+            mSnapshot = null;
+            return;
+        }
+
+        int[] columns = new int[mColumns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = cursor.getColumnIndex(mColumns[i]);
+            if (columns[i] < 0) {
+                // not in the projection
+                mSnapshot = null;
+                return;
+            }
+        }
+        CursorSnapshot snapshot = CursorSnapshot.of(cursor);
+        cursor.moveToPosition(-1);
+        mSnapshotColumns = columns;
+        mSnapshotConstraint = constraint.toString();
+        mSnapshot = snapshot;
     }
 
     @Override
     protected void publishResults(CharSequence constraint, FilterResults results) {
-        if (results != null) {
-            publishResults(constraint, results.count, (Cursor)results.values);
+        if ((results == null) || !(results.values instanceof Result)) {
+            return;
+        }
+        Result result = (Result)results.values;
+        if (result.generation != mGeneration.get()) {
+            // superseded while waiting to be published
+            result.cursor.close();
+            return;
         }
+        TotalCount previous = mTotalCount;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        mTotalCount = result.total;
+        publishResults(constraint, results.count, result.cursor);
     }
 
     /**
@@ -89,4 +482,58 @@ public abstract class DatabaseFilter extends Filter implements Closeable {
     public void close() {
         mDatabase.close();
     }
+
+    private static final class Result {
+        final Cursor cursor;
+        final int generation;
+        final TotalCount total;
+
+        Result(Cursor cursor, int generation, TotalCount total) {
+            this.cursor = cursor;
+            this.generation = generation;
+            this.total = total;
+        }
+    }
+
+    /**
+     * A count submitted to the background thread on the first request, then
+     * delivered to {@link DatabaseFilter#onTotalCount(CharSequence, int)}.
+     */
+    private final class TotalCount extends FutureTask<Integer> {
+        private final CharSequence mConstraint;
+        private final AtomicBoolean mStarted = new AtomicBoolean();
+
+        TotalCount(CharSequence constraint, Callable<Integer> count) {
+            super(count);
+            mConstraint = constraint;
+        }
+
+        void start() {
+            if (!isDone() && mStarted.compareAndSet(false, true)) {
+                COUNTER.execute(this);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (!mStarted.get() || isCancelled()) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mTotalCount != TotalCount.this) {
+                        return;
+                    }
+                    try {
+                        onTotalCount(mConstraint, get().intValue());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        Logs.e(TAG, "Error counting " + mConstraint, e.getCause());
+                    }
+                }
+            });
+        }
+    }
 }
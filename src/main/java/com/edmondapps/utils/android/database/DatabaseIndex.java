@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+import android.database.DatabaseUtils;
+
+/**
+ * A secondary index declared by an {@link IndexedTable}.
+ * </p>
+ * An index on several columns serves the queries filtering on its leading
+ * columns, and sorting by them in the same order. An index containing every
+ * column a query reads is a covering index: the query is answered from the
+ * index alone, without looking up the rows of the table.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class DatabaseIndex {
+    private final String mName;
+    private final boolean mUnique;
+    private final String[] mColumns;
+
+    /**
+     * @see #DatabaseIndex(String, boolean, String...)
+     */
+    public DatabaseIndex(String name, String... columns) {
+        this(name, false, columns);
+    }
+
+    /**
+     * @param name
+     *            the name of the index, unique in the database
+     * @param unique
+     *            true if no two rows may have the same values for the columns
+     * @param columns
+     *            the indexed columns in order, each optionally followed by
+     *            {@code ASC}, {@code DESC} or a {@code COLLATE} clause
+     */
+    public DatabaseIndex(String name, boolean unique, String... columns) {
+        if ((columns == null) || (columns.length == 0)) {
+            throw new IllegalArgumentException("an index needs at least a column");
+        }
+        mName = name;
+        mUnique = unique;
+        mColumns = columns.clone();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isUnique() {
+        return mUnique;
+    }
+
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+
+    /**
+     * The index is only created if it does not exist, so the command can be
+     * executed on every upgrade.
+     * 
+     * @param table
+     *            the SQL-escaped table name
+     * @return the {@code CREATE INDEX} statement of this index
+     */
+    public String getCreateCommand(String table) {
+        StringBuilder sql = new StringBuilder("CREATE ");
+        if (mUnique) {
+            sql.append("UNIQUE ");
+        }
+        sql.append("INDEX IF NOT EXISTS ").append(DatabaseUtils.sqlEscapeString(mName)).append(" ON ").append(table).append(" (");
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(mColumns[i]);
+        }
+        return sql.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseIndex [name=" + mName + ", unique=" + mUnique + ", columns=" + Arrays.toString(mColumns) + "]";
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.util.Base64;
+
+import com.edmondapps.utils.android.Utils;
+import com.edmondapps.utils.android.json.JsonBuilder;
+import com.edmondapps.utils.java.IoUtils;
+import com.edmondapps.utils.java.IoUtils.ProgressCallback;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams the rows of a {@link Database} to and from JSON, a page at a time,
+ * so memory use does not grow with the size of the table.
+ * </p>
+ * The document is an object keyed by {@link BaseColumns#_ID}, each value being
+ * an object of the other columns: </br>
+ * <code>{"1": {"name": "a", "count": 3}, "2": {"name": "b", "count": null}}
+ * </code> </br>
+ * Blobs are written as Base64 strings. Values keep their type on API 11 and
+ * above, prior to that every value is written as a {@code String}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class DatabaseJson {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private DatabaseJson() {
+        throw new AssertionError("nice try");
+    }
+
+    /**
+     * @see #exportTo(Database, JsonWriter, int, ProgressCallback)
+     */
+    public static int exportTo(Database<?> database, OutputStream out, ProgressCallback callback) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        int rows = exportTo(database, writer, DEFAULT_BATCH_SIZE, callback);
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Writes every row of the database as one JSON object, reading them in
+     * pages of {@code pageSize} rows ordered by {@link BaseColumns#_ID},
+     * whatever the order given to {@link Database#setOrderBy(String)} is. Rows
+     * written concurrently may or may not be included, but no row is written
+     * twice.
+     * </p>
+     * The writer is neither flushed nor closed.
+     * 
+     * @param pageSize
+     *            the number of rows read at once
+     * @param callback
+     *            called with the number of rows written after each page, may
+     *            be null. If it returns false, the object is closed and no
+     *            further rows are written.
+     * @return the number of rows written
+     */
+    public static int exportTo(Database<?> database, JsonWriter writer, int pageSize, ProgressCallback callback) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize <= 0: " + pageSize);
+        }
+        boolean typed = Utils.hasHoneyComb();
+        int rows = 0;
+        writer.beginObject();
+        database.acquire();
+        try {
+            PageToken token = null;
+            do {
+                Page page = database.queryPageById(token, pageSize);
+                Cursor c = page.getCursor();
+                try {
+                    int idColumn = c.getColumnIndexOrThrow(BaseColumns._ID);
+                    String[] columns = c.getColumnNames();
+                    while (c.moveToNext()) {
+                        writer.name(String.valueOf(c.getLong(idColumn)));
+                        writer.beginObject();
+                        for (int i = 0; i < columns.length; i++) {
+                            if (i != idColumn) {
+                                writer.name(columns[i]);
+                                writeValue(writer, c, i, typed);
+                            }
+                        }
+                        writer.endObject();
+                        rows++;
+                    }
+                } finally {
+                    IoUtils.quietClose(c);
+                }
+                token = page.getNextToken();
+                if ((callback != null) && !callback.onProgress(rows)) {
+                    break;
+                }
+            } while (token != null);
+        } finally {
+            database.release();
+        }
+        writer.endObject();
+        return rows;
+    }
+
+    private static void writeValue(JsonWriter writer, Cursor c, int column, boolean typed) throws IOException {
+        if (!typed) {
+            writer.value(c.getString(column));
+            return;
+        }
+        switch (c.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                writer.nullValue();
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                writer.value(c.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                writer.value(c.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                writer.value(Base64.encodeToString(c.getBlob(column), Base64.NO_WRAP));
+                break;
+            default:
+                writer.value(c.getString(column));
+                break;
+        }
+    }
+
+    /**
+     * @see #importFrom(Database, JsonReader, JsonBuilder, int,
+     *      ProgressCallback)
+     */
+    public static <T extends DatabaseEntry> int importFrom(Database<T> database, InputStream in, JsonBuilder<? extends T> builder, ProgressCallback callback) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        return importFrom(database, reader, builder, DEFAULT_BATCH_SIZE, callback);
+    }
+
+    /**
+     * Reads an object written by
+     * {@link #exportTo(Database, JsonWriter, int, ProgressCallback)}, building
+     * each entry with its ID and writing them with
+     * {@link Database#insertOrUpdateBunch(Iterable)}, one transaction per
+     * {@code batchSize} entries. Only the current batch is held in memory.
+     * </p>
+     * An entry keeps its ID if its {@code ContentValues} contain
+     * {@link BaseColumns#_ID}. Entries built as null are skipped. The batches
+     * written before an error are not rolled back.
+     * </p>
+     * The reader is not closed.
+     * 
+     * @param builder
+     *            builds an entry from each value, which is a JSON object
+     * @param batchSize
+     *            the number of entries written in a transaction
+     * @param callback
+     *            called with the number of entries read after each batch, may
+     *            be null. If it returns false, no further entries are read.
+     * @return the number of entries written
+     * @throws IOException
+     *             if the JSON is malformed, a name is not an ID, or thrown by
+     *             the {@link JsonBuilder}
+     */
+    public static <T extends DatabaseEntry> int importFrom(Database<T> database, JsonReader reader, JsonBuilder<? extends T> builder, int batchSize, ProgressCallback callback) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize <= 0: " + batchSize);
+        }
+        List<T> batch = new ArrayList<T>(batchSize);
+        int read = 0;
+        int written = 0;
+        database.acquire();
+        try {
+            reader.beginObject();
+            boolean aborted = false;
+            while (!aborted && reader.hasNext()) {
+                String name = reader.nextName();
+                long id;
+                try {
+                    id = Long.parseLong(name);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Not an ID: " + name);
+                }
+                T t = builder.build(id, reader);
+                read++;
+                if (t != null) {
+                    batch.add(t);
+                }
+                if (read % batchSize == 0) {
+                    written += write(database, batch);
+                    aborted = (callback != null) && !callback.onProgress(read);
+                }
+            }
+            written += write(database, batch);
+            if (aborted) {
+                return written;
+            }
+            reader.endObject();
+            if ((callback != null) && (read % batchSize != 0)) {
+                callback.onProgress(read);
+            }
+        } finally {
+            database.release();
+        }
+        return written;
+    }
+
+    private static <T extends DatabaseEntry> int write(Database<T> database, List<T> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int written = 0;
+        for (Long id : database.insertOrUpdateBunch(batch)) {
+            if ((id != null) && (id >= 0)) {
+                written++;
+            }
+        }
+        batch.clear();
+        return written;
+    }
+}
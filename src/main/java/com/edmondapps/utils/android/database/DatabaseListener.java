@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+/**
+ * Receives the writes performed by a {@link Database}, see
+ * {@link Database#registerListener(DatabaseListener)}.
+ * 
+ * @author Edmond
+ * 
+ */
+public interface DatabaseListener {
+    /**
+     * Called on the thread that performed the write, once the write is over.
+     * Must return quickly and must not write to the {@link Database}.
+     */
+    void onDatabaseChanged(DatabaseChange change);
+}
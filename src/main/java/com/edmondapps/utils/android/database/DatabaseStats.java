@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.edmondapps.utils.android.Logs;
+import com.edmondapps.utils.java.LatencyHistogram;
+
+/**
+ * Latencies and row counts of the operations of a {@link Database}, see
+ * {@link Database#setStats(DatabaseStats)}. Reads slower than a threshold are
+ * logged with their SQL, arguments and {@code EXPLAIN QUERY PLAN}.
+ * </p>
+ * A write performed outside of a transaction of the caller is also recorded as
+ * a transaction, so are the chunks of
+ * {@link Database#insertBunch(Iterable, DatabaseEntryBinder, int)} and the
+ * group commits of an {@link AsyncDatabase}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class DatabaseStats {
+    public static final String QUERY = "query";
+    public static final String QUERY_PAGE = "queryPage";
+    public static final String QUERY_IDS = "queryIds";
+    public static final String COUNT = "count";
+    public static final String INSERT = "insert";
+    public static final String INSERT_OR_UPDATE = "insertOrUpdate";
+    public static final String INSERT_BUNCH = "insertBunch";
+    public static final String INSERT_OR_UPDATE_BUNCH = "insertOrUpdateBunch";
+    public static final String UPDATE = "update";
+    public static final String UPDATE_BUNCH = "updateBunch";
+    public static final String DELETE = "delete";
+    public static final String DELETE_IDS = "deleteIds";
+
+    private static final String TAG = "DatabaseStats";
+
+    private final long mSlowNanos;
+    private final ConcurrentMap<String, LatencyHistogram> mLatencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final LatencyHistogram mTransactions = new LatencyHistogram();
+    private final AtomicLong mRowsRead = new AtomicLong();
+    private final AtomicLong mRowsWritten = new AtomicLong();
+    private final AtomicLong mSlowQueries = new AtomicLong();
+
+    /**
+     * Records without logging slow queries.
+     */
+    public DatabaseStats() {
+        this(-1);
+    }
+
+    /**
+     * @param slowQueryMillis
+     *            reads taking longer are logged, negative to log none
+     */
+    public DatabaseStats(long slowQueryMillis) {
+        mSlowNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    long recordRead(String operation, long startNanos, int rows) {
+        long elapsed = System.nanoTime() - startNanos;
+        getOrCreate(operation).record(elapsed);
+        mRowsRead.addAndGet(rows);
+        return elapsed;
+    }
+
+    /**
+     * @param nested
+     *            true if the write joined a transaction of the caller
+     */
+    void recordWrite(String operation, long startNanos, int rows, boolean nested) {
+        long elapsed = System.nanoTime() - startNanos;
+        getOrCreate(operation).record(elapsed);
+        mRowsWritten.addAndGet(rows);
+        if (!nested) {
+            mTransactions.record(elapsed);
+        }
+    }
+
+    void recordTransaction(long startNanos) {
+        mTransactions.record(System.nanoTime() - startNanos);
+    }
+
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos > mSlowNanos;
+    }
+
+    void logSlowQuery(SQLiteDatabase db, String sql, String[] args, long elapsedNanos) {
+        mSlowQueries.incrementAndGet();
+        String plan;
+        try {
+            plan = QueryPlan.explain(db, sql, args).getDetails().toString();
+        } catch (RuntimeException e) {
+            plan = "unavailable, " + e;
+        }
+        Logs.w(TAG, "Slow query (" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms): " + sql + ", args " + Arrays.toString(args) + ", plan " + plan);
+    }
+
+    private LatencyHistogram getOrCreate(String operation) {
+        LatencyHistogram histogram = mLatencies.get(operation);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = mLatencies.putIfAbsent(operation, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @param operation
+     *            one of the constants of this class
+     * @return the latencies of the operation, or null if it was not recorded
+     */
+    public LatencyHistogram getLatency(String operation) {
+        return mLatencies.get(operation);
+    }
+
+    /**
+     * @return the latencies of every operation recorded, by name
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(mLatencies));
+    }
+
+    public LatencyHistogram getTransactions() {
+        return mTransactions;
+    }
+
+    /**
+     * @return the number of rows in the results of reads, 0 for counts
+     */
+    public long getRowsRead() {
+        return mRowsRead.get();
+    }
+
+    /**
+     * @return the number of rows inserted, updated or deleted
+     */
+    public long getRowsWritten() {
+        return mRowsWritten.get();
+    }
+
+    public long getSlowQueryCount() {
+        return mSlowQueries.get();
+    }
+
+    public void reset() {
+        mLatencies.clear();
+        mTransactions.reset();
+        mRowsRead.set(0);
+        mRowsWritten.set(0);
+        mSlowQueries.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseStats [latencies=" + getLatencies() + ", transactions=" + mTransactions + ", rowsRead=" + getRowsRead() + ", rowsWritten=" + getRowsWritten() + ", slowQueries=" + getSlowQueryCount() + "]";
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * A bounded LRU cache of entries of a {@link Database}, keyed by their IDs.
+ * </p>
+ * Every invalidation bumps a version. A value read from the database is only
+ * cached if no invalidation happened since the read started, so a concurrent
+ * write cannot leave a stale entry behind.
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            type of the cached entries
+ */
+final class EntityCache<T> {
+    private final LruCache<Long, T> mCache;
+    private final RowMapper<? extends T> mMapper;
+    private int mVersion;
+
+    EntityCache(RowMapper<? extends T> mapper, int maxSize) {
+        mMapper = mapper;
+        mCache = new LruCache<Long, T>(maxSize);
+    }
+
+    RowMapper<? extends T> getMapper() {
+        return mMapper;
+    }
+
+    /**
+     * @return the cached entry, or null on a miss
+     */
+    T get(long id) {
+        return mCache.get(Long.valueOf(id));
+    }
+
+    /**
+     * Call before reading the entry from the database.
+     * 
+     * @return the token to pass to {@link #put(long, Object, int)}
+     */
+    synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Caches the entry unless an invalidation happened since
+     * {@link #getVersion()} returned {@code version}.
+     */
+    synchronized void put(long id, T t, int version) {
+        if ((t != null) && (version == mVersion)) {
+            mCache.put(Long.valueOf(id), t);
+        }
+    }
+
+    synchronized void remove(long id) {
+        mVersion++;
+        mCache.remove(Long.valueOf(id));
+    }
+
+    synchronized void clear() {
+        mVersion++;
+        mCache.evictAll();
+    }
+
+    CacheStats getStats() {
+        return CacheStats.of(mCache);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.Cursor;
+
+/**
+ * A {@link DatabaseFilter} matching the words typed against the
+ * {@link FullTextIndex} of a {@link FullTextTable}, instead of scanning the
+ * table with {@code LIKE}.
+ * </p>
+ * A row matches if, for every word of the constraint, one of the indexed
+ * columns contains a term starting with it, in any order. The rows are
+ * returned in the order of {@link Database#getOrderBy()}.
+ * </p>
+ * In incremental mode, a longer constraint adds words or extends the last one,
+ * so its rows are always among the rows of the shorter constraint.
+ * 
+ * @author Edmond
+ * 
+ */
+public abstract class FtsDatabaseFilter extends DatabaseFilter {
+    private final FullTextIndex mIndex;
+
+    /**
+     * @param database
+     *            a {@link Database} of a {@link FullTextTable}
+     */
+    protected FtsDatabaseFilter(Database<?> database) {
+        this(database, getIndex(database));
+    }
+
+    private FtsDatabaseFilter(Database<?> database, FullTextIndex index) {
+        super(database, index.getColumns()[0], tail(index.getColumns()));
+        mIndex = index;
+    }
+
+    @Override
+    protected Cursor onQuery(CharSequence constraint) {
+        String match = constraint == null ? null : FullTextIndex.toPrefixQuery(constraint);
+        if (match == null) {
+            return query(null, (String[])null);
+        }
+        return query(mIndex.getMatchSelection(), match);
+    }
+
+    /**
+     * Returns true if, for every word of the constraint, a value has a word
+     * starting with it, ignoring case. Tokenizers folding more than the case,
+     * such as {@code "porter"}, may match rows this method does not.
+     */
+    @Override
+    protected boolean matches(String[] values, CharSequence constraint) {
+        int length = constraint.length();
+        int start = 0;
+        while (start < length) {
+            while ((start < length) && !Character.isLetterOrDigit(constraint.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while ((end < length) && Character.isLetterOrDigit(constraint.charAt(end))) {
+                end++;
+            }
+            if ((end > start) && !containsPrefix(values, constraint.subSequence(start, end).toString())) {
+                return false;
+            }
+            start = end;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a word of the values starts with the prefix
+     */
+    private static boolean containsPrefix(String[] values, String prefix) {
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            for (int i = 0, last = value.length() - prefix.length(); i <= last; i++) {
+                boolean wordStart = (i == 0) || !Character.isLetterOrDigit(value.charAt(i - 1));
+                if (wordStart && value.regionMatches(true, i, prefix, 0, prefix.length())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static FullTextIndex getIndex(Database<?> database) {
+        DatabaseTable table = database.getDatabaseTable();
+        if (!(table instanceof FullTextTable)) {
+            throw new IllegalArgumentException(table.getTableName() + " is not a FullTextTable");
+        }
+        return ((FullTextTable)table).getFullTextIndex();
+    }
+
+    private static String[] tail(String[] columns) {
+        String[] tail = new String[columns.length - 1];
+        System.arraycopy(columns, 1, tail, 0, tail.length);
+        return tail;
+    }
+}
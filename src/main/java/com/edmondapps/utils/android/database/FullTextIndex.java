@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.database.DatabaseUtils;
+import android.provider.BaseColumns;
+
+/**
+ * An FTS4 full-text index over some columns of a table, declared by a
+ * {@link FullTextTable}.
+ * </p>
+ * The index is an external content FTS4 table: it stores the terms but not
+ * the text, and its {@code docid} is the {@link BaseColumns#_ID} of the row.
+ * Triggers on the table keep it in sync with every insert, update and delete.
+ * Prefix indexes of 2 and 3 characters are kept, so the short prefixes typed
+ * first are as fast to match as whole terms.
+ * </p>
+ * External content tables require SQLite 3.7.11, API 16 and above.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class FullTextIndex {
+    private static final String PREFIXES = "2,3";
+
+    private final String mTableName;
+    private final String mName;
+    private final String mTokenizer;
+    private final String[] mColumns;
+
+    /**
+     * @see #FullTextIndex(String, String, String...)
+     */
+    public FullTextIndex(String tableName, String... columns) {
+        this(tableName, null, columns);
+    }
+
+    /**
+     * @param tableName
+     *            the name of the table, as returned by
+     *            {@link DatabaseTable#getTableName()}
+     * @param tokenizer
+     *            the tokenizer, such as {@code "porter"} or
+     *            {@code "unicode61"}, or null for the default {@code "simple"}
+     *            tokenizer, which only folds the case of ASCII characters
+     * @param columns
+     *            the text columns to index
+     */
+    public FullTextIndex(String tableName, String tokenizer, String... columns) {
+        if ((columns == null) || (columns.length == 0)) {
+            throw new IllegalArgumentException("a full-text index needs at least a column");
+        }
+        mTableName = tableName;
+        mName = tableName + "_fts";
+        mTokenizer = tokenizer;
+        mColumns = columns.clone();
+    }
+
+    /**
+     * @return the name of the FTS4 table, unescaped
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public String[] getColumns() {
+        return mColumns.clone();
+    }
+
+    /**
+     * The table and its triggers are only created if they do not exist.
+     * {@link #getRebuildCommand()} must be executed afterwards if the table
+     * already has rows.
+     * 
+     * @return the statements creating the FTS4 table and its triggers
+     */
+    public List<String> getCreateCommands() {
+        String table = DatabaseUtils.sqlEscapeString(mTableName);
+        String fts = SqlUtils.quoteIdentifier(mName);
+
+        List<String> commands = new ArrayList<String>(5);
+        StringBuilder sql = new StringBuilder("CREATE VIRTUAL TABLE IF NOT EXISTS ").append(fts).append(" USING fts4(");
+        appendColumns(sql, "");
+        sql.append(", content=").append(table).append(", prefix=\"").append(PREFIXES).append('"');
+        if (mTokenizer != null) {
+            sql.append(", tokenize=").append(mTokenizer);
+        }
+        commands.add(sql.append(')').toString());
+
+        commands.add(trigger("bu", "BEFORE UPDATE", table, deleteOld(fts)));
+        commands.add(trigger("bd", "BEFORE DELETE", table, deleteOld(fts)));
+        commands.add(trigger("au", "AFTER UPDATE", table, insertNew(fts)));
+        commands.add(trigger("ai", "AFTER INSERT", table, insertNew(fts)));
+        return commands;
+    }
+
+    /**
+     * @return the statement indexing every row of the table again
+     */
+    public String getRebuildCommand() {
+        String fts = SqlUtils.quoteIdentifier(mName);
+        return "INSERT INTO " + fts + "(" + fts + ") VALUES('rebuild')";
+    }
+
+    /**
+     * @return the statements dropping the triggers and the FTS4 table
+     */
+    public List<String> getDropCommands() {
+        List<String> commands = new ArrayList<String>(5);
+        for (String suffix : new String[] {"bu", "bd", "au", "ai"}) {
+            commands.add("DROP TRIGGER IF EXISTS " + SqlUtils.quoteIdentifier(mName + "_" + suffix));
+        }
+        commands.add("DROP TABLE IF EXISTS " + SqlUtils.quoteIdentifier(mName));
+        return commands;
+    }
+
+    /**
+     * @return a selection of the rows whose {@link BaseColumns#_ID} is in the
+     *         result of a {@code MATCH} query, with a single argument
+     * @see #toPrefixQuery(CharSequence)
+     */
+    public String getMatchSelection() {
+        String fts = SqlUtils.quoteIdentifier(mName);
+        return BaseColumns._ID + " IN (SELECT docid FROM " + fts + " WHERE " + fts + " MATCH ?)";
+    }
+
+    /**
+     * Turns text typed by the user into a query matching the rows containing a
+     * term starting with every word of the text. Characters other than letters
+     * and digits separate words, so that none of them is read as an operator.
+     * 
+     * @return the {@code MATCH} query, or null if the text has no word
+     */
+    public static String toPrefixQuery(CharSequence text) {
+        StringBuilder query = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && (query.length() > 0)) {
+                    query.append(' ');
+                }
+                query.append(c);
+                inWord = true;
+            } else {
+                if (inWord) {
+                    query.append('*');
+                }
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    private String trigger(String suffix, String when, String table, String body) {
+        return "CREATE TRIGGER IF NOT EXISTS " + SqlUtils.quoteIdentifier(mName + "_" + suffix) + " " + when + " ON " + table + " BEGIN " + body + "; END";
+    }
+
+    /**
+     * FTS4 reads the terms to remove from the content table, the row must not
+     * be changed yet.
+     */
+    private static String deleteOld(String fts) {
+        return "DELETE FROM " + fts + " WHERE docid = old." + BaseColumns._ID;
+    }
+
+    private String insertNew(String fts) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(fts).append("(docid, ");
+        appendColumns(sql, "");
+        sql.append(") VALUES(new.").append(BaseColumns._ID).append(", ");
+        appendColumns(sql, "new.");
+        return sql.append(')').toString();
+    }
+
+    private void appendColumns(StringBuilder sql, String prefix) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(prefix).append(mColumns[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FullTextIndex [name=" + mName + ", columns=" + Arrays.toString(mColumns) + "]";
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A {@link DatabaseTable} with a {@link FullTextIndex}, used by
+ * {@link FtsDatabaseFilter} for prefix search.
+ * </br>
+ * The index is created by {@link Database#onCreate(SQLiteDatabase)}, and by
+ * {@link Database#onUpgrade(SQLiteDatabase, int, int)} if it does not exist,
+ * in which case the existing rows are indexed.
+ * 
+ * @author Edmond
+ * 
+ */
+public interface FullTextTable extends DatabaseTable {
+    /**
+     * Called whenever the indexes are created.
+     * 
+     * @return the full-text index of the table
+     */
+    FullTextIndex getFullTextIndex();
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A {@link DatabaseTable} that declares secondary indexes, so selections and
+ * orders on other columns than {@link android.provider.BaseColumns#_ID} do not
+ * scan the whole table.
+ * </br>
+ * The indexes are created by {@link Database#onCreate(SQLiteDatabase)} and
+ * {@link Database#onUpgrade(SQLiteDatabase, int, int)}. Use
+ * {@link Database#findFullScans()} to check the queries are using them.
+ * 
+ * @author Edmond
+ * 
+ */
+public interface IndexedTable extends DatabaseTable {
+    /**
+     * Called whenever the indexes are created.
+     * 
+     * @return the indexes of the table
+     */
+    List<DatabaseIndex> getIndexes();
+}
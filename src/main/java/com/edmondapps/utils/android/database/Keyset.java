@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.edmondapps.utils.android.Utils;
+
+/**
+ * The sort keys of keyset pagination, parsed from an {@code ORDER BY} clause
+ * such as {@code "name ASC, age DESC"}. {@link BaseColumns#_ID} is appended as
+ * the last key if missing, so every row has a unique position.
+ * </p>
+ * The key columns should not contain {@code NULL}s, which are not comparable.
+ * Keys keep their type on API 11 and above: integers and floats are compared
+ * as numbers whatever the affinity of the column, and floats are written with
+ * enough digits to be read back exactly. Prior to that every key is compared
+ * as a {@code String}, which is only exact for {@code INTEGER} and
+ * {@code TEXT} columns.
+ * 
+ * @author Edmond
+ * 
+ */
+final class Keyset {
+    private static final String ASC = "ASC";
+    private static final String DESC = "DESC";
+
+    private final String mOrderBy;
+    private final String[] mColumns;
+    private final boolean[] mDescending;
+
+    /**
+     * @param orderBy
+     *            a comma separated list of terms, each being a column name
+     *            optionally followed by {@code ASC} or {@code DESC}; null to
+     *            order by {@link BaseColumns#_ID}
+     * @throws IllegalArgumentException
+     *             if a term cannot be parsed
+     */
+    Keyset(String orderBy) {
+        List<String> columns = new ArrayList<String>();
+        List<Boolean> descending = new ArrayList<Boolean>();
+        boolean hasId = false;
+        if (!TextUtils.isEmpty(orderBy)) {
+            for (String term : orderBy.split(",")) {
+                String[] parts = term.trim().split("\\s+");
+                if ((parts.length == 0) || (parts.length > 2) || (parts[0].length() == 0)) {
+                    throw new IllegalArgumentException("cannot paginate by \"" + term + "\" in " + orderBy);
+                }
+                boolean desc = false;
+                if (parts.length == 2) {
+                    String direction = parts[1].toUpperCase(Locale.US);
+                    if (DESC.equals(direction)) {
+                        desc = true;
+                    } else if (!ASC.equals(direction)) {
+                        throw new IllegalArgumentException("cannot paginate by \"" + term + "\" in " + orderBy);
+                    }
+                }
+                columns.add(parts[0]);
+                descending.add(Boolean.valueOf(desc));
+                hasId |= BaseColumns._ID.equals(parts[0]);
+            }
+        }
+        if (!hasId) {
+            columns.add(BaseColumns._ID);
+            descending.add(Boolean.FALSE);
+        }
+
+        mColumns = columns.toArray(new String[columns.size()]);
+        mDescending = new boolean[mColumns.length];
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < mColumns.length; i++) {
+            mDescending[i] = descending.get(i).booleanValue();
+            if (i > 0) {
+                order.append(", ");
+            }
+            order.append(mColumns[i]).append(' ').append(mDescending[i] ? DESC : ASC);
+        }
+        mOrderBy = order.toString();
+    }
+
+    /**
+     * @return the {@code ORDER BY} clause including the {@link BaseColumns#_ID}
+     *         key
+     */
+    String getOrderBy() {
+        return mOrderBy;
+    }
+
+    /**
+     * @return the key columns, in order
+     */
+    String[] getColumns() {
+        return mColumns.clone();
+    }
+
+    /**
+     * Appends the condition selecting the rows after the given keys,
+     * {@code (a > ?) OR (a = ? AND b > ?) OR ...}, and its arguments.
+     */
+    void appendAfter(StringBuilder selection, List<String> args, Object[] keys) {
+        selection.append('(');
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                selection.append(" OR ");
+            }
+            selection.append('(');
+            for (int j = 0; j < i; j++) {
+                selection.append(mColumns[j]).append(" = ");
+                appendKey(selection, args, keys[j]);
+                selection.append(" AND ");
+            }
+            selection.append(mColumns[i]).append(mDescending[i] ? " < " : " > ");
+            appendKey(selection, args, keys[i]);
+            selection.append(')');
+        }
+        selection.append(')');
+    }
+
+    /**
+     * Selection arguments are bound as text, numbers are cast back so they
+     * are not compared as text when the column has no numeric affinity.
+     */
+    private static void appendKey(StringBuilder selection, List<String> args, Object key) {
+        if (key instanceof Long) {
+            selection.append("CAST(? AS INTEGER)");
+        } else if (key instanceof Double) {
+            selection.append("CAST(? AS REAL)");
+            double value = ((Double)key).doubleValue();
+            if (Double.isInfinite(value)) {
+                args.add(value > 0 ? "9e999" : "-9e999");// overflows to infinity
+                return;
+            }
+        } else {
+            selection.append('?');
+        }
+        args.add(String.valueOf(key));
+    }
+
+    /**
+     * @return the keys of the last row, each a {@code Long}, a {@code Double}
+     *         or a {@code String}, or null if the {@code Cursor} is empty. The
+     *         {@code Cursor} is moved back before the first row.
+     * @throws IllegalStateException
+     *             if a key column is not in the {@code Cursor}
+     */
+    Object[] readLastKeys(Cursor cursor) {
+        if (!cursor.moveToLast()) {
+            return null;
+        }
+        Object[] keys = readKeys(cursor);
+        cursor.moveToPosition(-1);
+        return keys;
+    }
+
+    /**
+     * @return the keys of the current row, see {@link #readLastKeys(Cursor)}
+     * @throws IllegalStateException
+     *             if a key column is not in the {@code Cursor}
+     */
+    Object[] readKeys(Cursor cursor) {
+        boolean typed = Utils.hasHoneyComb();
+        Object[] keys = new Object[mColumns.length];
+        for (int i = 0; i < keys.length; i++) {
+            int index = cursor.getColumnIndex(mColumns[i]);
+            if (index < 0) {
+                throw new IllegalStateException("sort key " + mColumns[i] + " is not in the projection");
+            }
+            keys[i] = typed ? getKey(cursor, index) : cursor.getString(index);
+        }
+        return keys;
+    }
+
+    private static Object getKey(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+}
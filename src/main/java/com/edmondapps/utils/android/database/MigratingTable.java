@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A {@link DatabaseTable} upgraded by {@link Migration} steps instead of a
+ * single {@link Database#onUpgrade(SQLiteDatabase, int, int)}.
+ * </br>
+ * The steps between the old and the new {@link #getTableVersion()} are
+ * recorded on upgrade and run by {@link Database#migrate(Migration.Listener)}.
+ * 
+ * @author Edmond
+ * 
+ */
+public interface MigratingTable extends DatabaseTable {
+    /**
+     * @return the steps of every version, in any order
+     */
+    List<Migration> getMigrations();
+}
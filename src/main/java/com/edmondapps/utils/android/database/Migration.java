@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+/**
+ * A step upgrading the table of a {@link MigratingTable} to a version, run by
+ * {@link Database#migrate(Listener)} in three stages, each committed with the
+ * progress of the step:
+ * <ol>
+ * <li>{@link #onStart(SQLiteDatabase)}, in its own transaction;</li>
+ * <li>{@link #onBatch(SQLiteDatabase, long, int)}, in one transaction per
+ * batch, until it returns {@link #NO_ROW};</li>
+ * <li>{@link #onFinish(SQLiteDatabase)}, in the transaction of the last
+ * batch.</li>
+ * </ol>
+ * A step interrupted by a process kill resumes with the batch following the
+ * last committed one.
+ * 
+ * @author Edmond
+ * 
+ * @see CopyMigration
+ */
+public abstract class Migration {
+    /**
+     * The {@code afterId} of the first batch, and the result of a batch that
+     * found no row left.
+     */
+    public static final long NO_ROW = Long.MIN_VALUE;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final int mVersion;
+
+    /**
+     * @param version
+     *            the table version this step upgrades to
+     */
+    protected Migration(int version) {
+        if (version <= 1) {
+            throw new IllegalArgumentException("version <= 1: " + version);
+        }
+        mVersion = version;
+    }
+
+    public final int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the {@code limit} of each batch, 1000 by default
+     */
+    public int getBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Changes the schema before the rows are migrated. Does nothing by
+     * default.
+     */
+    protected void onStart(SQLiteDatabase db) {
+    }
+
+    /**
+     * Migrates up to {@code limit} rows, in the order of their
+     * {@link BaseColumns#_ID}. Migrates nothing by default.
+     * 
+     * @param afterId
+     *            the {@link BaseColumns#_ID} returned by the previous batch, or
+     *            {@link #NO_ROW} for the first batch
+     * @return the {@link BaseColumns#_ID} of the last row migrated, or
+     *         {@link #NO_ROW} if no row was left
+     */
+    protected long onBatch(SQLiteDatabase db, long afterId, int limit) {
+        return NO_ROW;
+    }
+
+    /**
+     * Changes the schema once the rows are migrated. Does nothing by default.
+     */
+    protected void onFinish(SQLiteDatabase db) {
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [version=" + mVersion + "]";
+    }
+
+    /**
+     * Notified by {@link Database#migrate(Listener)} on the migrating thread.
+     */
+    public interface Listener {
+        /**
+         * @param batches
+         *            the number of batches committed
+         * @param elapsedMillis
+         *            the time spent in the step, including before a process
+         *            kill
+         */
+        void onMigrated(Database<?> database, Migration migration, int batches, long elapsedMillis);
+    }
+}
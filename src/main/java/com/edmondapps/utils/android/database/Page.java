@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.Cursor;
+
+/**
+ * A page of rows returned by {@link Database#queryPage(PageToken, int)}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class Page {
+    private final Cursor mCursor;
+    private final PageToken mNextToken;
+
+    Page(Cursor cursor, PageToken nextToken) {
+        mCursor = cursor;
+        mNextToken = nextToken;
+    }
+
+    /**
+     * The caller is responsible for closing the {@code Cursor}.
+     * 
+     * @return the rows of this page, positioned before the first row
+     */
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * @return the token of the next page, or null if this page is the last
+     */
+    public PageToken getNextToken() {
+        return mNextToken;
+    }
+
+    /**
+     * The last page may be empty if the previous page was exactly full.
+     * 
+     * @return true if there may be more rows after this page
+     */
+    public boolean hasNext() {
+        return mNextToken != null;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+/**
+ * Marks the position after the last row of a {@link Page}. Pass it to
+ * {@link Database#queryPage(PageToken, int)} to fetch the next page.
+ * </br>
+ * It holds the values of the sort keys of the last row, the next page starts
+ * right after them without skipping rows with {@code OFFSET}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class PageToken {
+    private final String mOrderBy;
+    private final Object[] mKeys;
+
+    PageToken(String orderBy, Object[] keys) {
+        mOrderBy = orderBy;
+        mKeys = keys;
+    }
+
+    /**
+     * @return the order the token was created with
+     */
+    String getOrderBy() {
+        return mOrderBy;
+    }
+
+    /**
+     * @return the keys of the last row, see {@link Keyset#readLastKeys}
+     */
+    Object[] getKeys() {
+        return mKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "PageToken [orderBy=" + mOrderBy + ", keys=" + Arrays.toString(mKeys) + "]";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Map;
+
+/**
+ * A {@link DatabaseTable} that declares named projections, such as
+ * {@code "list"} or {@code "detail"}, so screens only read the columns they
+ * need.
+ * </br>
+ * A projection is validated by {@link Database#getProjection(String)} the
+ * first time it is used.
+ * 
+ * @author Edmond
+ * 
+ */
+public interface ProjectionTable extends DatabaseTable {
+    /**
+     * Called once by {@link Database}.
+     * 
+     * @return the projections keyed by name, each being a list of columns or
+     *         expressions
+     */
+    Map<String, String[]> getProjections();
+}
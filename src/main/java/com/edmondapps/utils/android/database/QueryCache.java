@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * A bounded LRU cache of query results of a {@link Database}, sized by the
+ * estimated memory of the rows, see {@link CursorSnapshot#estimateSize()}.
+ * </p>
+ * Like {@link EntityCache}, every invalidation bumps a version and a result is
+ * only cached if no invalidation happened since the query started. A result
+ * larger than a quarter of the cache is not kept, so that it does not evict
+ * every other result.
+ * 
+ * @author Edmond
+ * 
+ */
+final class QueryCache {
+    private final LruCache<Key, CursorSnapshot> mCache;
+    private final int mMaxResultSize;
+    private int mVersion;
+
+    QueryCache(int maxBytes) {
+        mCache = new LruCache<Key, CursorSnapshot>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, CursorSnapshot value) {
+                return value.estimateSize();
+            }
+        };
+        mMaxResultSize = maxBytes / 4;
+    }
+
+    /**
+     * @return the cached result, or null on a miss
+     */
+    CursorSnapshot get(Key key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Call before querying the database.
+     * 
+     * @return the token to pass to {@link #put(Key, CursorSnapshot, int)}
+     */
+    synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Caches the result unless an invalidation happened since
+     * {@link #getVersion()} returned {@code version}.
+     */
+    synchronized void put(Key key, CursorSnapshot snapshot, int version) {
+        if ((version == mVersion) && (snapshot.estimateSize() <= mMaxResultSize)) {
+            mCache.put(key, snapshot);
+        }
+    }
+
+    synchronized void clear() {
+        mVersion++;
+        mCache.evictAll();
+    }
+
+    CacheStats getStats() {
+        return CacheStats.of(mCache);
+    }
+
+    /**
+     * Identifies a query by everything that changes its result.
+     */
+    static final class Key {
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mOrderBy;
+        private final int mLimit;
+        private final int mHashCode;
+
+        Key(String[] projection, String selection, String[] selectionArgs, String orderBy, int limit) {
+            mProjection = projection == null ? null : projection.clone();
+            mSelection = selection;
+            mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            mOrderBy = orderBy;
+            mLimit = limit;
+
+            int hash = Arrays.hashCode(mProjection);
+            hash = 31 * hash + (selection == null ? 0 : selection.hashCode());
+            hash = 31 * hash + Arrays.hashCode(mSelectionArgs);
+            hash = 31 * hash + (orderBy == null ? 0 : orderBy.hashCode());
+            mHashCode = 31 * hash + limit;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return (mHashCode == other.mHashCode) && (mLimit == other.mLimit) && Arrays.equals(mProjection, other.mProjection)
+                    && equal(mSelection, other.mSelection) && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && equal(mOrderBy, other.mOrderBy);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The result of {@code EXPLAIN QUERY PLAN} for a query, as returned by
+ * {@link Database#explain(String[], String, String...)}.
+ * </p>
+ * The details are meant for diagnostics, their wording depends on the version
+ * of SQLite.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class QueryPlan {
+    private static final String DETAIL = "detail";
+    private static final String SCAN = "SCAN";
+
+    private final String mSql;
+    private final List<String> mDetails;
+
+    QueryPlan(String sql, List<String> details) {
+        mSql = sql;
+        mDetails = Collections.unmodifiableList(details);
+    }
+
+    static QueryPlan explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int column = cursor.getColumnIndex(DETAIL);
+            if (column < 0) {
+                column = cursor.getColumnCount() - 1;
+            }
+            List<String> details = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(column));
+            }
+            return new QueryPlan(sql, details);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the query explained
+     */
+    public String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the {@code detail} column of every step of the plan
+     */
+    public List<String> getDetails() {
+        return mDetails;
+    }
+
+    /**
+     * A step scanning an index still reads every row, in the order of the
+     * index, typically when the query has no selection but is ordered by an
+     * indexed column.
+     * 
+     * @return true if a step reads every row of a table or an index instead
+     *         of searching an index
+     * @see #isIndexScan()
+     */
+    public boolean isFullScan() {
+        for (String detail : mDetails) {
+            if (detail.startsWith(SCAN)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every step reading every row walks an index, possibly a
+     *         covering one, rather than the table itself
+     * @see #isFullScan()
+     */
+    public boolean isIndexScan() {
+        boolean scan = false;
+        for (String detail : mDetails) {
+            if (detail.startsWith(SCAN)) {
+                if (!detail.contains(" INDEX ")) {
+                    return false;
+                }
+                scan = true;
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * @return true if the rows are sorted after being read, because no index
+     *         matches the order
+     */
+    public boolean usesTempBTree() {
+        for (String detail : mDetails) {
+            if (detail.startsWith("USE TEMP B-TREE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan [sql=" + mSql + ", details=" + mDetails + "]";
+    }
+}
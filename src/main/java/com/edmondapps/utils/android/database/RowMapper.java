@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.database.Cursor;
+
+/**
+ * The read side of {@link DatabaseEntry}: creates an object from a row of a
+ * {@link Cursor}.
+ * </br>
+ * Column indexes are resolved once per {@code Cursor} by
+ * {@link #getColumnIndexes(Cursor)} and passed back for every row, so no
+ * column name is looked up per row and the mapper can be shared between
+ * threads.
+ * 
+ * @author Edmond
+ * 
+ * @param <T>
+ *            the type of the object created
+ * @see ColumnRowMapper
+ */
+public interface RowMapper<T> {
+    /**
+     * Called once per {@code Cursor}, before any call to
+     * {@link #mapRow(Cursor, int[])}.
+     * 
+     * @return the indexes of the columns needed by
+     *         {@link #mapRow(Cursor, int[])}
+     */
+    int[] getColumnIndexes(Cursor cursor);
+
+    /**
+     * Do not move the {@code Cursor}.
+     * 
+     * @param cursor
+     *            positioned at the row to map
+     * @param columns
+     *            the array returned by {@link #getColumnIndexes(Cursor)} for
+     *            this {@code Cursor}
+     * @return the object created from the current row
+     */
+    T mapRow(Cursor cursor, int[] columns);
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * A database file hosting the tables of several {@link Database}s, created
+ * with {@link Database#Database(SharedDatabase, DatabaseTable)}. The
+ * {@code Database}s share a single connection, journal and page cache, and a
+ * transaction may span their tables, see {@link #runInTransaction(Callable)}.
+ * </p>
+ * Every {@code Database} must be created before the file is first opened.
+ * The version of the file replaces the versions of the {@link DatabaseTable}s:
+ * on upgrade, tables that do not exist yet are created and the others are
+ * upgraded by their {@code Database}. Adding a table to an existing file
+ * therefore requires a new version.
+ * </p>
+ * The connection stays open while this or any of its {@code Database}s is
+ * acquired.
+ * 
+ * @author Edmond
+ * 
+ */
+public class SharedDatabase extends SQLiteOpenHelper {
+    private final Context mContext;
+    private final String mName;
+    private final List<Database<?>> mDatabases = new CopyOnWriteArrayList<Database<?>>();
+    private int mAcquireCount;
+
+    /**
+     * @param context
+     *            to open or create the database
+     * @param name
+     *            the file name of the database
+     * @param version
+     *            the version of the file, starting at 1
+     */
+    public SharedDatabase(Context context, String name, int version) {
+        super(context, name, null, version);
+        mContext = context;
+        mName = name;
+    }
+
+    final void add(Database<?> database) {
+        for (Database<?> added : mDatabases) {
+            if (added.getDatabaseName().equals(database.getDatabaseName())) {
+                throw new IllegalStateException("table " + database.getDatabaseName() + " is already in " + mName);
+            }
+        }
+        mDatabases.add(database);
+    }
+
+    public final Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * It is safe to call this method prior to API 14.
+     * 
+     * @return the file name given in the constructor
+     */
+    @Override
+    public final String getDatabaseName() {
+        return mName;
+    }
+
+    /**
+     * @return the {@link Database}s sharing this file, in order of creation
+     */
+    public final List<Database<?>> getDatabases() {
+        return Collections.unmodifiableList(mDatabases);
+    }
+
+    /**
+     * Creates the table of every {@link Database}.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        for (Database<?> database : mDatabases) {
+            database.onCreate(db);
+        }
+    }
+
+    /**
+     * Creates the tables that do not exist yet and upgrades the others.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Database<?> database : mDatabases) {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] {database.getDatabaseTable().getTableName()}) > 0) {
+                database.onUpgrade(db, oldVersion, newVersion);
+            } else {
+                database.onCreate(db);
+            }
+        }
+    }
+
+    /**
+     * @see Database#acquire()
+     */
+    public final SQLiteDatabase acquire() {
+        synchronized (this) {
+            mAcquireCount++;
+        }
+        boolean opened = false;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            opened = true;
+            return db;
+        } finally {
+            if (!opened) {
+                synchronized (this) {
+                    mAcquireCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * @see Database#release()
+     */
+    public final synchronized void release() {
+        if (mAcquireCount <= 0) {
+            throw new IllegalStateException("release() called without a matching acquire()");
+        }
+        mAcquireCount--;
+        if (mAcquireCount == 0) {
+            close();
+        }
+    }
+
+    public final synchronized boolean isAcquired() {
+        return mAcquireCount > 0;
+    }
+
+    /**
+     * Closes the connection unless it is held by {@link #acquire()}, which
+     * counts the holders of every {@link Database} of this file.
+     */
+    final synchronized void closeIfNotAcquired() {
+        if (mAcquireCount == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the compiled statements of every {@link Database} before closing
+     * the connection they were compiled with.
+     */
+    @Override
+    public synchronized void close() {
+        for (Database<?> database : mDatabases) {
+            database.clearStatements();
+        }
+        super.close();
+    }
+
+    /**
+     * Runs the body in a single transaction, committed if it returns and
+     * rolled back if it throws. The writes of every {@link Database} of this
+     * file made by the body join the transaction; they are published to
+     * {@link DatabaseListener}s as they are made, before the commit.
+     * </p>
+     * On rollback, the cached sizes, entries and queries of every
+     * {@code Database} are invalidated.
+     * 
+     * @return the result of the body
+     */
+    public final <R> R runInTransaction(Callable<R> body) throws Exception {
+        SQLiteDatabase db = acquire();
+        try {
+            boolean successful = false;
+            db.beginTransaction();
+            try {
+                R result = body.call();
+                db.setTransactionSuccessful();
+                successful = true;
+                return result;
+            } finally {
+                db.endTransaction();
+                if (!successful) {
+                    for (Database<?> database : mDatabases) {
+                        database.invalidateSize();
+                        database.invalidateEntities();
+                        database.invalidateQueries();
+                    }
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedDatabase [name=" + mName + ", tables=" + mDatabases.size() + "]";
+    }
+}
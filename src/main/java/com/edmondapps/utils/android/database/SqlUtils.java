@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+/**
+ * Builds fragments of SQL statements shared by the classes of this package.
+ * 
+ * @author Edmond
+ * 
+ */
+final class SqlUtils {
+    private SqlUtils() {
+        throw new AssertionError("nice try");
+    }
+
+    /**
+     * Quotes an identifier, such as a table or trigger name. A single-quoted
+     * name would be read as a string in {@code MATCH} expressions.
+     */
+    static String quoteIdentifier(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
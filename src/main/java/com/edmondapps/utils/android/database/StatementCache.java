@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.support.v4.util.LruCache;
+
+import com.edmondapps.utils.android.Logs;
+import com.edmondapps.utils.java.LongArray;
+
+/**
+ * Caches compiled {@link SQLiteStatement}s of a {@link Database}, keyed by
+ * the operation and the set of columns written.
+ * </p>
+ * Statements belong to the {@link SQLiteDatabase} they were compiled with,
+ * the cache is emptied whenever a different connection is used. All methods
+ * that execute a statement must be called inside a transaction.
+ * 
+ * @author Edmond
+ * 
+ */
+final class StatementCache {
+    static final int INSERT = 0;
+    static final int UPDATE_BY_ID = 1;
+    static final int DELETE_BY_ID = 2;
+    static final int INSERT_BOUND = 3;
+    static final int UPSERT = 4;
+    static final int LAST_INSERT_ROWID = 5;
+
+    private static final String TAG = "StatementCache";
+
+    private final String mTable;
+    private final String mSelectId;
+    private final LruCache<Key, Entry> mCache;
+    private SQLiteDatabase mDatabase;
+
+    /**
+     * @param table
+     *            the SQL-escaped table name
+     * @param selectId
+     *            the where clause selecting a row by its ID, with a single
+     *            argument
+     * @param maxSize
+     *            maximum number of statements kept
+     */
+    StatementCache(String table, String selectId, int maxSize) {
+        mTable = table;
+        mSelectId = selectId;
+        mCache = new LruCache<Key, Entry>(maxSize) {
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Entry oldValue, Entry newValue) {
+                oldValue.statement.close();
+            }
+        };
+    }
+
+    /**
+     * Binds the values to a cached {@code INSERT} statement and executes it.
+     * 
+     * @return the row ID of the new row, or -1 if no row was inserted
+     * @see SQLiteStatement#executeInsert()
+     */
+    synchronized long executeInsert(SQLiteDatabase db, ContentValues values) {
+        Entry entry = get(db, INSERT, values.keySet());
+        bind(entry, values);
+        return entry.statement.executeInsert();
+    }
+
+    /**
+     * Binds the values to a cached {@code UPDATE} statement selecting the given
+     * ID and executes it. Requires API 11.
+     * 
+     * @return the number of rows updated
+     * @see SQLiteStatement#executeUpdateDelete()
+     */
+    synchronized int executeUpdateById(SQLiteDatabase db, ContentValues values, long id) {
+        Entry entry = get(db, UPDATE_BY_ID, values.keySet());
+        bind(entry, values);
+        entry.statement.bindLong(entry.columns.length + 1, id);
+        return entry.statement.executeUpdateDelete();
+    }
+
+    /**
+     * Executes a cached {@code DELETE} statement selecting the given ID.
+     * Requires API 11.
+     * 
+     * @return the number of rows deleted
+     * @see SQLiteStatement#executeUpdateDelete()
+     */
+    synchronized int executeDeleteById(SQLiteDatabase db, long id) {
+        Entry entry = get(db, DELETE_BY_ID, null);
+        entry.statement.clearBindings();
+        entry.statement.bindLong(1, id);
+        return entry.statement.executeUpdateDelete();
+    }
+
+    /**
+     * Binds the values to a cached
+     * {@code INSERT ... ON CONFLICT(_id) DO UPDATE} statement and executes it.
+     * Requires SQLite 3.24.0. The values must contain
+     * {@link BaseColumns#_ID} and at least another column.
+     * 
+     * @return the value of {@code last_insert_rowid()} after the statement,
+     *         which is left unchanged if the row was updated
+     */
+    synchronized long executeUpsert(SQLiteDatabase db, ContentValues values) {
+        Entry entry = get(db, UPSERT, values.keySet());
+        bind(entry, values);
+        return entry.statement.executeInsert();
+    }
+
+    /**
+     * @return {@code last_insert_rowid()} of the connection
+     */
+    synchronized long lastInsertRowId(SQLiteDatabase db) {
+        return get(db, LAST_INSERT_ROWID, null).statement.simpleQueryForLong();
+    }
+
+    /**
+     * Inserts up to {@code max} entries from the {@code Iterator} with a single
+     * cached statement bound by the {@link DatabaseEntryBinder}. The IDs are
+     * appended to {@code ids}, a null entry or a failed insertion is
+     * represented by -1.
+     * 
+     * @return the number of entries consumed from the {@code Iterator}
+     */
+    synchronized <T extends DatabaseEntry> int executeInsertAll(SQLiteDatabase db, DatabaseTable table, DatabaseEntryBinder<? super T> binder, Iterator<? extends T> items, int max, LongArray ids) {
+        SQLiteStatement statement = get(db, INSERT_BOUND, Arrays.asList(binder.getColumns(table))).statement;
+        int count = 0;
+        for (; (count < max) && items.hasNext(); count++) {
+            T t = items.next();
+            if (t == null) {
+                ids.add(-1L);
+                continue;
+            }
+            statement.clearBindings();
+            binder.bind(t, statement);
+            try {
+                ids.add(statement.executeInsert());
+            } catch (SQLException e) {
+                Logs.e(TAG, "Error inserting " + t, e);
+                ids.add(-1L);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes all the statements. Must be called before the connection they
+     * belong to is closed.
+     */
+    synchronized void clear() {
+        mCache.evictAll();
+        mDatabase = null;
+    }
+
+    CacheStats getStats() {
+        return CacheStats.of(mCache);
+    }
+
+    /**
+     * @param columns
+     *            a {@code Set} if the order of columns does not matter, or a
+     *            {@code List} otherwise
+     */
+    private Entry get(SQLiteDatabase db, int op, Collection<String> columns) {
+        if (db != mDatabase) {
+            mCache.evictAll();
+            mDatabase = db;
+        }
+        Entry entry = mCache.get(new Key(op, columns));
+        if (entry == null) {
+            String[] cols = columns == null ? new String[0] : columns.toArray(new String[columns.size()]);
+            entry = new Entry(db.compileStatement(buildSql(op, cols)), cols);
+            mCache.put(new Key(op, copyOf(columns)), entry);
+        }
+        return entry;
+    }
+
+    private String buildSql(int op, String[] columns) {
+        StringBuilder sql = new StringBuilder();
+        switch (op) {
+            case INSERT:
+            case INSERT_BOUND:
+                appendInsert(sql, columns);
+                break;
+            case UPSERT:
+                appendInsert(sql, columns);
+                sql.append(" ON CONFLICT(").append(BaseColumns._ID).append(") DO UPDATE SET ");
+                boolean first = true;
+                for (String column : columns) {
+                    if (BaseColumns._ID.equals(column)) {
+                        continue;
+                    }
+                    if (!first) {
+                        sql.append(',');
+                    }
+                    sql.append(column).append("=excluded.").append(column);
+                    first = false;
+                }
+                break;
+            case LAST_INSERT_ROWID:
+                sql.append("SELECT last_insert_rowid()");
+                break;
+            case UPDATE_BY_ID:
+                sql.append("UPDATE ").append(mTable).append(" SET ");
+                appendColumns(sql, columns, "=?");
+                sql.append(" WHERE ").append(mSelectId);
+                break;
+            case DELETE_BY_ID:
+                sql.append("DELETE FROM ").append(mTable).append(" WHERE ").append(mSelectId);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operation " + op);
+        }
+        return sql.toString();
+    }
+
+    private void appendInsert(StringBuilder sql, String[] columns) {
+        sql.append("INSERT INTO ").append(mTable).append(" (");
+        appendColumns(sql, columns, "");
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+    }
+
+    /**
+     * The key set from {@code ContentValues} is a live view, it cannot be kept
+     * as a key.
+     */
+    private static Collection<String> copyOf(Collection<String> columns) {
+        if (columns == null) {
+            return null;
+        }
+        if (columns instanceof Set) {
+            return new HashSet<String>(columns);
+        }
+        return Arrays.asList(columns.toArray(new String[columns.size()]));
+    }
+
+    private static void appendColumns(StringBuilder sql, String[] columns, String suffix) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i]).append(suffix);
+        }
+    }
+
+    private static void bind(Entry entry, ContentValues values) {
+        SQLiteStatement statement = entry.statement;
+        String[] columns = entry.columns;
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+    }
+
+    private static final class Entry {
+        final SQLiteStatement statement;
+        final String[] columns;
+
+        Entry(SQLiteStatement statement, String[] columns) {
+            this.statement = statement;
+            this.columns = columns;
+        }
+    }
+
+    private static final class Key {
+        private final int mOp;
+        private final Collection<String> mColumns;
+
+        Key(int op, Collection<String> columns) {
+            mOp = op;
+            mColumns = columns;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mOp + (mColumns == null ? 0 : mColumns.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return mOp == other.mOp && (mColumns == null ? other.mColumns == null : mColumns.equals(other.mColumns));
+        }
+    }
+}
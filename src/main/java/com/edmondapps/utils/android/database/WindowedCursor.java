@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.BaseColumns;
+
+import com.edmondapps.utils.android.Logs;
+
+/**
+ * A read-only {@code Cursor} over a large result, which keeps only a few
+ * windows of rows in memory and reads the windows around the current
+ * position on a background thread, see
+ * {@link Database#queryWindowed(int, int, String, String...)}.
+ * </p>
+ * When the main thread moves to a row whose window has not been read yet, the
+ * move does not wait: the row is not loaded (see {@link #isLoaded()}), and
+ * the registered {@link DataSetObserver}s are notified once the window is
+ * read, so a {@code CursorAdapter} binds the row again. Until then, the
+ * {@link BaseColumns#_ID} of the row reads as {@code -1 - position}, which is
+ * unique and never the ID of a row, and its other columns read as
+ * {@code null}. Other threads read the missing window before returning.
+ * </p>
+ * When the {@code Cursor} is created, the rows are counted by reading their
+ * sort keys only, and the keys starting every {@value #ANCHOR_WINDOWS}th
+ * window are kept. A window following a window in memory starts after the sort
+ * keys of its last row; any other window starts after the nearest kept keys,
+ * skipping fewer than {@value #ANCHOR_WINDOWS} windows with {@code OFFSET}, so
+ * jumping anywhere in a large result costs about the same. Writes made after
+ * the {@code Cursor} is created may shift the rows between windows, the
+ * {@code Cursor} should be replaced on change as {@link WindowedCursorLoader}
+ * does.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class WindowedCursor extends AbstractCursor {
+    static final int ANCHOR_WINDOWS = 16;
+    private static final String TAG = "WindowedCursor";
+    private static final ExecutorService FETCHER = newFetcher();
+
+    private final Database<?> mDatabase;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mWindowSize;
+    private final int mMaxWindows;
+    private final int mCount;
+    private final String[] mColumns;
+    private final int mIdColumn;
+    private final List<PageToken> mAnchors;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /* guarded by mWindows, so are mPending and mMissed */
+    private final Map<Integer, Window> mWindows;
+    private final Set<Integer> mPending = new HashSet<Integer>();
+    private final Set<Integer> mMissed = new HashSet<Integer>();
+    private volatile int mCurrentIndex;
+    private volatile boolean mReleased;
+
+    private Window mWindow;
+    private int mRow;
+
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            if (!mReleased) {
+                mDataSetObservable.notifyChanged();
+            }
+        }
+    };
+
+    /**
+     * Counts the rows and reads the window of {@code position}.
+     */
+    WindowedCursor(Database<?> database, int windowSize, final int maxWindows, int position, String selection, String[] selectionArgs) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize <= 0: " + windowSize);
+        }
+        if (maxWindows < 3) {
+            throw new IllegalArgumentException("maxWindows < 3: " + maxWindows);
+        }
+        mDatabase = database;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mWindowSize = windowSize;
+        mMaxWindows = maxWindows;
+        mWindows = new LinkedHashMap<Integer, Window>(maxWindows + 1, 1f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Window> eldest) {
+                return size() > maxWindows;
+            }
+        };
+
+        List<PageToken> anchors = new ArrayList<PageToken>();
+        mCount = database.readAnchors(windowSize * ANCHOR_WINDOWS, anchors, selection, selectionArgs);
+        mAnchors = anchors;
+        int index = Math.max(0, Math.min(position, mCount - 1)) / windowSize;
+        Window window = fetch(index);
+        mColumns = window.mRows.getColumnNames();
+        mIdColumn = window.mRows.getColumnIndex(BaseColumns._ID);
+        mWindows.put(index, window);
+        mCurrentIndex = index;
+    }
+
+    private static ExecutorService newFetcher() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, TAG);
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * @return the position of the first row of the window last moved to
+     */
+    int getAnchor() {
+        return mCurrentIndex * mWindowSize;
+    }
+
+    /**
+     * @return true if the row at the current position has been read, false
+     *         if it reads as a placeholder until the observers are notified
+     */
+    public boolean isLoaded() {
+        return (mWindow != null) && (mRow < mWindow.mRows.getCount());
+    }
+
+    /**
+     * Does not move the {@code Cursor} nor request the window.
+     * 
+     * @return true if the row at the position is in memory
+     */
+    public boolean isLoaded(int position) {
+        if ((position < 0) || (position >= mCount)) {
+            return false;
+        }
+        synchronized (mWindows) {
+            Window window = mWindows.get(position / mWindowSize);
+            return (window != null) && (position % mWindowSize < window.mRows.getCount());
+        }
+    }
+
+    /**
+     * @return true if the window of the position is being read in the
+     *         background
+     */
+    public boolean isPending(int position) {
+        synchronized (mWindows) {
+            return mPending.contains(position / mWindowSize);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = newPosition / mWindowSize;
+        mCurrentIndex = index;
+
+        Window window;
+        synchronized (mWindows) {
+            window = mWindows.get(index);
+        }
+        if ((window == null) && (Looper.myLooper() != Looper.getMainLooper())) {
+            window = load(index);
+        }
+        mWindow = window;
+        mRow = newPosition - (index * mWindowSize);
+
+        if (window == null) {
+            synchronized (mWindows) {
+                mMissed.add(index);
+            }
+            request(index);
+        }
+        if (index > 0) {
+            request(index - 1);
+        }
+        if ((index + 1) * mWindowSize < mCount) {
+            request(index + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the window on the background thread, unless it is in memory,
+     * already requested, or no longer next to the current window by the time
+     * its turn comes.
+     */
+    private void request(final int index) {
+        synchronized (mWindows) {
+            if (mReleased || mWindows.containsKey(index) || !mPending.add(index)) {
+                return;
+            }
+        }
+        FETCHER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mReleased && (Math.abs(index - mCurrentIndex) <= 1)) {
+                        load(index);
+                    }
+                } catch (RuntimeException e) {
+                    Logs.e(TAG, "Error reading window " + index + " of " + mDatabase.getDatabaseName(), e);
+                } finally {
+                    synchronized (mWindows) {
+                        mPending.remove(index);
+                    }
+                }
+            }
+        });
+    }
+
+    private Window load(int index) {
+        Window window = fetch(index);
+        boolean missed;
+        synchronized (mWindows) {
+            if (mReleased) {
+                return window;
+            }
+            mWindows.put(index, window);
+            missed = mMissed.remove(index);
+        }
+        if (missed) {
+            mHandler.post(mNotify);
+        }
+        return window;
+    }
+
+    private Window fetch(int index) {
+        Window previous;
+        synchronized (mWindows) {
+            previous = mWindows.get(index - 1);
+        }
+        Page page;
+        if ((previous != null) && (previous.mNext != null)) {
+            page = mDatabase.queryPage(previous.mNext, mWindowSize, mSelection, mSelectionArgs);
+        } else {
+            int anchor = Math.min(index / ANCHOR_WINDOWS, mAnchors.size() - 1);
+            int offset = (index - anchor * ANCHOR_WINDOWS) * mWindowSize;
+            page = mDatabase.queryPage(mAnchors.get(anchor), offset, mWindowSize, mSelection, mSelectionArgs);
+        }
+        Cursor cursor = page.getCursor();
+        try {
+            return new Window(CursorSnapshot.of(cursor), page.getNextToken());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Object getValue(int column) {
+        checkPosition();
+        if (!isLoaded()) {
+            return column == mIdColumn ? Long.valueOf(-1L - getPosition()) : null;
+        }
+        return mWindow.mRows.getValue(mRow, column);
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = getValue(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).shortValue();
+        }
+        return Short.parseShort(value.toString());
+    }
+
+    @Override
+    public int getInt(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).intValue();
+        }
+        return Integer.parseInt(value.toString());
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).floatValue();
+        }
+        return Float.parseFloat(value.toString());
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = getValue(column);
+        return value instanceof byte[] ? (byte[])value : null;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        } else if ((value instanceof Double) || (value instanceof Float)) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getValue(column) == null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (mWindows) {
+            mReleased = true;
+            mWindows.clear();
+            mMissed.clear();
+        }
+        mHandler.removeCallbacks(mNotify);
+        mWindow = null;
+    }
+
+    @Override
+    public String toString() {
+        return "WindowedCursor [count=" + mCount + ", windowSize=" + mWindowSize + ", maxWindows=" + mMaxWindows + "]";
+    }
+
+    private static final class Window {
+        final CursorSnapshot mRows;
+        final PageToken mNext;
+
+        Window(CursorSnapshot rows, PageToken next) {
+            mRows = rows;
+            mNext = next;
+        }
+    }
+}
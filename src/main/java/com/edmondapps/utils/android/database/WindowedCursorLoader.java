@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.android.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * A {@link DatabaseCursorLoader} of a {@link WindowedCursor}, for results
+ * too large to be read at once. Each load counts the rows and reads a single
+ * window; the others are read on a background thread as the
+ * {@code Cursor} moves.
+ * </p>
+ * A reload reads the window last moved to in the previous {@code Cursor}
+ * first, so the rows shown stay loaded when the new {@code Cursor} is
+ * delivered.
+ * 
+ * @author Edmond
+ * 
+ */
+public class WindowedCursorLoader extends DatabaseCursorLoader {
+    public static final int DEFAULT_WINDOW_SIZE = 256;
+    public static final int DEFAULT_MAX_WINDOWS = 5;
+
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private volatile int mWindowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int mMaxWindows = DEFAULT_MAX_WINDOWS;
+    private volatile WindowedCursor mCursor;
+
+    public WindowedCursorLoader(Context context, Database<?> database, String selection, String... selectionArgs) {
+        super(context, database);
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+    }
+
+    /**
+     * Applies from the next load.
+     * 
+     * @param windowSize
+     *            the number of rows read at once, 256 by default
+     * @param maxWindows
+     *            the number of windows kept in memory, at least 3, 5 by
+     *            default
+     */
+    public void setWindowSize(int windowSize, int maxWindows) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize <= 0: " + windowSize);
+        }
+        if (maxWindows < 3) {
+            throw new IllegalArgumentException("maxWindows < 3: " + maxWindows);
+        }
+        mWindowSize = windowSize;
+        mMaxWindows = maxWindows;
+    }
+
+    @Override
+    protected Cursor onLoadCursor() {
+        WindowedCursor previous = mCursor;
+        int position = previous == null ? 0 : previous.getAnchor();
+        return new WindowedCursor(getDatabase(), mWindowSize, mMaxWindows, position, mSelection, mSelectionArgs);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset()) {
+            mCursor = (WindowedCursor)cursor;
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mCursor = null;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, with one bucket per power of two.
+ * Recording is lock-free and takes constant time; percentiles are therefore
+ * approximate, within a factor of two of the exact value and never above the
+ * maximum recorded.
+ * </p>
+ * Safe to use from multiple threads. Readings taken while another thread is
+ * recording may be slightly out of step with each other.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos
+     *            a duration, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(nanos);
+        long max;
+        do {
+            max = mMax.get();
+        } while ((nanos > max) && !mMax.compareAndSet(max, nanos));
+    }
+
+    /**
+     * @return the bucket holding durations from {@code 2^(bucket - 1)} up to
+     *         {@code 2^bucket - 1}, 0 holding only 0
+     */
+    private static int bucketOf(long nanos) {
+        return Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return the sum of the durations in nanoseconds
+     */
+    public long getTotal() {
+        return mTotal.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotal.get() / count;
+    }
+
+    /**
+     * @param percent
+     *            between 0 and 100
+     * @return the upper bound of the bucket holding the given percentile,
+     *         capped at {@link #getMax()}, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percent) {
+        if ((percent < 0) || (percent > 100)) {
+            throw new IllegalArgumentException("percent not between 0 and 100: " + percent);
+        }
+        long count = 0;
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(count * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                long upper = i == 0 ? 0 : (i >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [count=" + getCount() + ", mean=" + toMicros(getMean()) + "us, p50=" + toMicros(getPercentile(50)) + "us, p99=" + toMicros(getPercentile(99)) + "us, max=" + toMicros(getMax()) + "us]";
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
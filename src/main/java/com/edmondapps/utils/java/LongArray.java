@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.java;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive {@code long}s, to avoid boxing each element
+ * in a {@code List<Long>}.
+ * 
+ * @author Edmond
+ * 
+ */
+public final class LongArray {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mValues;
+    private int mSize;
+
+    public LongArray() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            the initial capacity, must not be negative
+     */
+    public LongArray(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        mValues = new long[capacity];
+    }
+
+    public void add(long value) {
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, Math.max(DEFAULT_CAPACITY, mSize * 2));
+        }
+        mValues[mSize++] = value;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException
+     *             if {@code index} is not between 0 and {@link #size()}
+     */
+    public long get(int index) {
+        if (index >= mSize || index < 0) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+        return mValues[index];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Removes all the elements, the capacity is kept.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return a new {@code long[]} trimmed to {@link #size()}
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Edmond
+ * 
+ */
+public class LatencyHistogramTest {
+    LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMean());
+        assertEquals(0, mHistogram.getPercentile(50));
+        assertEquals(0, mHistogram.getMax());
+    }
+
+    @Test
+    public void testTotals() {
+        mHistogram.record(100);
+        mHistogram.record(300);
+        mHistogram.record(-5);
+        assertEquals(3, mHistogram.getCount());
+        assertEquals(400, mHistogram.getTotal());
+        assertEquals(133, mHistogram.getMean());
+        assertEquals(300, mHistogram.getMax());
+    }
+
+    @Test
+    public void testPercentileWithinFactorOfTwo() {
+        for (long i = 1; i <= 1000; i++) {
+            mHistogram.record(i * 1000);
+        }
+        long p50 = mHistogram.getPercentile(50);
+        assertTrue(String.valueOf(p50), (p50 >= 500000) && (p50 < 2 * 500000));
+        long p99 = mHistogram.getPercentile(99);
+        assertTrue(String.valueOf(p99), (p99 >= 990000) && (p99 <= mHistogram.getMax()));
+        assertEquals(mHistogram.getMax(), mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void testPercentileCappedAtMax() {
+        mHistogram.record(1025);
+        assertEquals(1025, mHistogram.getPercentile(50));
+    }
+
+    @Test
+    public void testZero() {
+        mHistogram.record(0);
+        mHistogram.record(0);
+        mHistogram.record(8);
+        assertEquals(0, mHistogram.getPercentile(50));
+        assertEquals(8, mHistogram.getPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        mHistogram.getPercentile(101);
+    }
+
+    @Test
+    public void testReset() {
+        mHistogram.record(42);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getTotal());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecords() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 1; j <= 10000; j++) {
+                        mHistogram.record(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, mHistogram.getCount());
+        assertEquals(4 * (10000L * 10001 / 2), mHistogram.getTotal());
+        assertEquals(10000, mHistogram.getMax());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Edmond Chui
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.edmondapps.utils.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Edmond
+ * 
+ */
+public class LongArrayTest {
+    LongArray mArray;
+
+    @Before
+    public void setUp() {
+        mArray = new LongArray(0);
+    }
+
+    @Test
+    public void testGrow() {
+        assertTrue(mArray.isEmpty());
+        for (long i = 0; i < 100; i++) {
+            mArray.add(i);
+        }
+        assertEquals(100, mArray.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, mArray.get(i));
+        }
+    }
+
+    @Test
+    public void testToArray() {
+        mArray.add(3L);
+        mArray.add(-1L);
+        mArray.add(7L);
+        assertArrayEquals(new long[] {3L, -1L, 7L}, mArray.toArray());
+    }
+
+    @Test
+    public void testClear() {
+        mArray.add(1L);
+        mArray.clear();
+        assertTrue(mArray.isEmpty());
+        assertArrayEquals(new long[0], mArray.toArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        mArray.add(1L);
+        mArray.get(1);
+    }
+}